@@ -1,7 +1,9 @@
 package com.hmdp.config;
 
 import com.hmdp.utils.LoginInterceptor;
+import com.hmdp.utils.RateLimitInterceptor;
 import com.hmdp.utils.RefreshTokenInterceptor;
+import com.hmdp.utils.SeckillCheckInterceptor;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
@@ -16,9 +18,19 @@ public class MvcConfig implements WebMvcConfigurer {
     @Resource
     private RefreshTokenInterceptor refreshTokenInterceptor;
 
+    @Resource
+    private RateLimitInterceptor rateLimitInterceptor;
+
+    @Resource
+    private SeckillCheckInterceptor seckillCheckInterceptor;
+
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
         registry.addInterceptor(refreshTokenInterceptor).addPathPatterns("/**").order(0);
+        // 秒杀的本地预校验在限流之前，售罄、未开始、已结束的请求不访问Redis
+        registry.addInterceptor(seckillCheckInterceptor).addPathPatterns("/voucher-order/seckill/*").order(1);
+        // 限流在登录校验之前，未登录的恶意请求同样会被限流
+        registry.addInterceptor(rateLimitInterceptor).addPathPatterns("/**").order(2);
         registry.addInterceptor(loginInterceptor)
                 .excludePathPatterns(
                         "/shop/**",
@@ -28,6 +40,6 @@ public class MvcConfig implements WebMvcConfigurer {
                         "/upload/**",
                         "/user/code",
                         "/user/login"
-                ).order(1);
+                ).order(3);
     }
 }
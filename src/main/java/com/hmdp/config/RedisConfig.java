@@ -3,7 +3,9 @@ package com.hmdp.config;
 import com.hmdp.utils.RedisBloomFilter;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 
 import static com.hmdp.utils.RedisConstants.BLOOM_SHOP_KEY;
 
@@ -20,4 +22,14 @@ public class RedisConfig {
         double falsePositiveProbability = 0.0001; // 0.01% 误判率
         return new RedisBloomFilter(redisTemplate, bloomFilterName, expectedInsertions, falsePositiveProbability);
     }
+
+    /**
+     * Redis发布订阅的监听容器，各节点通过它接收广播消息
+     */
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory connectionFactory) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        return container;
+    }
 }
@@ -7,12 +7,14 @@ import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.UserInfo;
 import com.hmdp.service.IUserInfoService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.RateLimit;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
 import javax.servlet.http.HttpSession;
+import java.util.concurrent.TimeUnit;
 
 /**
  * <p>
@@ -37,6 +39,12 @@ public class UserController {
      * 发送手机验证码
      */
     @PostMapping("code")
+    @RateLimit(dimension = RateLimit.Dimension.PARAMETER, name = "phone",
+            algorithm = RateLimit.Algorithm.SLIDING_WINDOW, permits = 1, period = 60)
+    @RateLimit(dimension = RateLimit.Dimension.PARAMETER, name = "phone",
+            algorithm = RateLimit.Algorithm.SLIDING_WINDOW, permits = 5, period = 1, timeUnit = TimeUnit.HOURS)
+    @RateLimit(dimension = RateLimit.Dimension.IP,
+            algorithm = RateLimit.Algorithm.SLIDING_WINDOW, permits = 10, period = 1, timeUnit = TimeUnit.MINUTES)
     public Result sendCode(@RequestParam("phone") String phone, HttpSession session) {
         // 发送短信验证码并保存验证码
         return userService.sendCode(phone, session);
@@ -4,12 +4,21 @@ package com.hmdp.controller;
 import com.hmdp.dto.Result;
 import com.hmdp.service.IVoucherOrderService;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.RateLimit;
+import com.hmdp.utils.SeckillWaitingRoom;
+import com.hmdp.utils.UserHolder;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import javax.annotation.Resource;
+import java.util.List;
 
 /**
  * <p>
@@ -26,8 +35,78 @@ public class VoucherOrderController {
     @Resource
     private IVoucherOrderService voucherOrderService;
 
+    @Resource
+    private SeckillWaitingRoom seckillWaitingRoom;
+
+    /**
+     * 秒杀下单，售罄、未开始、已结束的请求已由 SeckillCheckInterceptor 在限流之前拒绝
+     * 按优惠券只在节点本地限流，避免单个优惠券的限流key在Redis中成为热点，上限按单个节点计算
+     */
     @PostMapping("seckill/{id}")
-    public Result seckillVoucher(@PathVariable("id") Long voucherId) {
+    @RateLimit(dimension = RateLimit.Dimension.USER, permits = 5)
+    @RateLimit(dimension = RateLimit.Dimension.IP, permits = 20)
+    @RateLimit(dimension = RateLimit.Dimension.PATH_VARIABLE, name = "id", permits = 5000, local = true)
+    public Result seckillVoucher(@PathVariable("id") Long voucherId,
+                                 @RequestHeader(value = "seckill-pass", required = false) String pass) {
+        // 开启排队时，必须凭排队换来的秒杀凭证下单，凭证只能使用一次
+        if (seckillWaitingRoom.isEnabled()
+                && !seckillWaitingRoom.consumePass(voucherId, UserHolder.getUser().getId(), pass)) {
+            return Result.fail("请先排队获取秒杀资格！");
+        }
         return voucherOrderService.seckillVoucher(voucherId);
     }
+
+    /**
+     * 批量秒杀，一次请求抢购多张优惠券
+     * @param voucherIds 优惠券id
+     * @param bestEffort false 全部成功或全部失败；true 能抢到的都下单
+     * @return 每张优惠券的订单id或失败原因
+     */
+    @PostMapping("seckill/batch")
+    @RateLimit(dimension = RateLimit.Dimension.USER, permits = 5)
+    @RateLimit(dimension = RateLimit.Dimension.IP, permits = 20)
+    public Result seckillVouchers(@RequestBody List<Long> voucherIds,
+                                  @RequestParam(value = "bestEffort", defaultValue = "false") Boolean bestEffort) {
+        // 秒杀凭证按优惠券发放，排队期间只能逐张下单
+        if (seckillWaitingRoom.isEnabled()) {
+            return Result.fail("排队期间不支持批量抢购！");
+        }
+        return voucherOrderService.seckillVouchers(voucherIds, bestEffort);
+    }
+
+    /**
+     * 进入秒杀排队
+     * @param voucherId 优惠券id
+     * @return 前面还有的人数
+     */
+    @PostMapping("seckill/{id}/queue")
+    @RateLimit(dimension = RateLimit.Dimension.USER, permits = 2)
+    public Result joinSeckillQueue(@PathVariable("id") Long voucherId) {
+        return voucherOrderService.joinSeckillQueue(voucherId);
+    }
+
+    /**
+     * 查询秒杀排队状态
+     * @param voucherId 优惠券id
+     * @return 前面还有的人数，轮到时返回秒杀凭证，下单时通过请求头 seckill-pass 提交
+     */
+    @GetMapping("seckill/{id}/queue")
+    @RateLimit(dimension = RateLimit.Dimension.USER, permits = 2)
+    public Result querySeckillQueue(@PathVariable("id") Long voucherId) {
+        return voucherOrderService.querySeckillQueue(voucherId);
+    }
+
+    /**
+     * 查询秒杀下单结果
+     * @param voucherId 优惠券id
+     * @param orderId 下单时返回的订单id，同一用户多次下单时各自查询
+     * @param timeout 排队中时最长等待的毫秒数，不传则立即返回
+     * @return 订单id和状态，queued：排队中；persisted：已创建；failed：创建失败；cancelled：超时未支付已取消
+     */
+    @GetMapping("seckill/{id}/result")
+    public DeferredResult<Result> querySeckillResult(@PathVariable("id") Long voucherId,
+                                                     @RequestParam("orderId") Long orderId,
+                                                     @RequestParam(value = "timeout", defaultValue = "0") Long timeout) {
+        return voucherOrderService.querySeckillResult(voucherId, orderId, timeout);
+    }
 }
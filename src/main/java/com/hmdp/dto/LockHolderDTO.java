@@ -0,0 +1,34 @@
+package com.hmdp.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 当前持有的锁
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class LockHolderDTO {
+    /**
+     * 锁的key
+     */
+    private String key;
+    /**
+     * 锁的分类，如 lock:shop
+     */
+    private String prefix;
+    /**
+     * 持有者标识
+     */
+    private String owner;
+    /**
+     * 持有锁的线程名
+     */
+    private String thread;
+    /**
+     * 已持有的毫秒数
+     */
+    private Long heldMs;
+}
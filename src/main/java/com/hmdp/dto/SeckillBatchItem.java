@@ -0,0 +1,23 @@
+package com.hmdp.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 批量秒杀中一张优惠券的结果
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SeckillBatchItem {
+    private Long voucherId;
+    /**
+     * 订单id，下单成功时返回
+     */
+    private Long orderId;
+    /**
+     * 失败原因，下单成功时为空
+     */
+    private String errorMsg;
+}
@@ -0,0 +1,28 @@
+package com.hmdp.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 秒杀下单结果
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SeckillOrderResult {
+    public static final String QUEUED = "queued";
+    public static final String PERSISTED = "persisted";
+    public static final String FAILED = "failed";
+    public static final String CANCELLED = "cancelled";
+
+    private Long orderId;
+    /**
+     * queued：排队中；persisted：已创建；failed：创建失败；cancelled：超时未支付已取消
+     */
+    private String status;
+
+    public boolean isFinished() {
+        return !QUEUED.equals(status);
+    }
+}
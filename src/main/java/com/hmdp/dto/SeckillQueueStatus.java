@@ -0,0 +1,22 @@
+package com.hmdp.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 秒杀排队状态
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SeckillQueueStatus {
+    /**
+     * 前面还有的人数，0表示已轮到
+     */
+    private Long ahead;
+    /**
+     * 秒杀凭证，轮到后发放，下单时通过请求头 seckill-pass 提交
+     */
+    private String pass;
+}
@@ -0,0 +1,38 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+/**
+ * 秒杀库存对账结果，记录Redis与数据库之间的偏差
+ */
+@Data
+public class SeckillStockDrift {
+    /**
+     * 优惠券id
+     */
+    private Long voucherId;
+    /**
+     * 数据库中的剩余库存
+     */
+    private Integer dbStock;
+    /**
+     * 数据库中的订单数
+     */
+    private Long orderCount;
+    /**
+     * Redis中的剩余库存，各分片之和
+     */
+    private Long redisStock;
+    /**
+     * Redis中记录的购买用户数
+     */
+    private Long buyerCount;
+    /**
+     * 期望的Redis剩余库存 = 数据库库存 - 已抢到但尚未落库的订单数
+     */
+    private Long expectedRedisStock;
+    /**
+     * 是否已修复
+     */
+    private Boolean repaired;
+}
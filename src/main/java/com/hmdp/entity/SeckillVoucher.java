@@ -37,6 +37,26 @@ public class SeckillVoucher implements Serializable {
      */
     private Integer stock;
 
+    /**
+     * Redis库存分片数，大于1时库存拆分到多个key
+     */
+    private Integer stockShards;
+
+    /**
+     * 一人一单去重方式，0：Set；1：Bitmap；2：分块Bitmap；3：按用户计数
+     */
+    private Integer dedupMode;
+
+    /**
+     * 每个用户最多购买数量，0表示不限
+     */
+    private Integer limitPerUser;
+
+    /**
+     * 每个用户每天最多购买数量，0表示不限
+     */
+    private Integer limitDaily;
+
     /**
      * 创建时间
      */
@@ -78,6 +78,30 @@ public class Voucher implements Serializable {
     @TableField(exist = false)
     private Integer stock;
 
+    /**
+     * Redis库存分片数，默认1不分片，只支持单实例Redis，分片不会提高吞吐
+     */
+    @TableField(exist = false)
+    private Integer stockShards;
+
+    /**
+     * 一人一单去重方式，0：Set；1：Bitmap；2：分块Bitmap，购买用户很多的秒杀券可用Bitmap节省内存，设置了限购数量时自动使用3：按用户计数
+     */
+    @TableField(exist = false)
+    private Integer dedupMode;
+
+    /**
+     * 每个用户最多购买数量，默认1即一人一单，0表示不限
+     */
+    @TableField(exist = false)
+    private Integer limitPerUser;
+
+    /**
+     * 每个用户每天最多购买数量，0表示不限
+     */
+    @TableField(exist = false)
+    private Integer limitDaily;
+
     /**
      * 生效时间
      */
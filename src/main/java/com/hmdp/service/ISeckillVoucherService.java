@@ -13,4 +13,22 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface ISeckillVoucherService extends IService<SeckillVoucher> {
 
+    /**
+     * 从本地缓存查询秒杀券的时间窗口等元数据，未命中时查询数据库
+     * @param voucherId 优惠券id
+     * @return 秒杀券，不存在时返回null
+     */
+    SeckillVoucher queryCachedById(Long voucherId);
+
+    /**
+     * 预热本地缓存，并通知其它节点清除旧数据，处于事务中时在提交后执行
+     * @param seckillVoucher 秒杀券
+     */
+    void cacheSeckillVoucher(SeckillVoucher seckillVoucher);
+
+    /**
+     * 清除所有节点的本地缓存，处于事务中时在提交后通知其它节点
+     * @param voucherId 优惠券id
+     */
+    void evictSeckillVoucher(Long voucherId);
 }
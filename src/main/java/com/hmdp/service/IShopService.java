@@ -21,4 +21,9 @@ public interface IShopService extends IService<Shop> {
     Result saveShop(Shop shop);
 
     void loadAllShopIdToBloomFilter();
+
+    /**
+     * 预热热点店铺的逻辑过期缓存
+     */
+    void preloadHotShops();
 }
@@ -1,9 +1,11 @@
 package com.hmdp.service;
 
 import com.hmdp.dto.Result;
-import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.util.List;
 
 /**
  * <p>
@@ -17,5 +19,61 @@ public interface IVoucherOrderService extends IService<VoucherOrder> {
 
     Result seckillVoucher(Long voucherId);
 
-    Result createVoucherOrder(Long voucherId, SeckillVoucher voucher);
+    /**
+     * 只用本地售罄标记和本地缓存的秒杀券校验是否可以下单，不访问Redis，供限流之前提前拒绝
+     * @param voucherId 优惠券id
+     * @return 不能下单的原因，可以下单时返回null
+     */
+    String checkSeckillVoucher(Long voucherId);
+
+    /**
+     * 一次抢购多张优惠券，只执行一次Lua脚本
+     * @param voucherIds 优惠券id
+     * @param bestEffort false 全部成功或全部失败；true 能抢到的都下单
+     * @return 每张优惠券的结果
+     */
+    Result seckillVouchers(List<Long> voucherIds, boolean bestEffort);
+
+    /**
+     * 查询当前用户的秒杀下单结果，支持长轮询
+     * @param voucherId 优惠券id
+     * @param orderId 下单时返回的订单id
+     * @param timeoutMs 排队中时最长等待时间，小于等于0时立即返回
+     * @return 下单结果
+     */
+    DeferredResult<Result> querySeckillResult(Long voucherId, Long orderId, long timeoutMs);
+
+    /**
+     * 进入秒杀排队
+     * @param voucherId 优惠券id
+     * @return 排队状态
+     */
+    Result joinSeckillQueue(Long voucherId);
+
+    /**
+     * 查询秒杀排队状态，轮到时返回秒杀凭证
+     * @param voucherId 优惠券id
+     * @return 排队状态
+     */
+    Result querySeckillQueue(Long voucherId);
+
+    /**
+     * 批量创建订单，按优惠券合并写入和库存扣减
+     * @param voucherOrders 订单列表
+     * @return 实际新写入的订单，消息重复投递时已存在的订单不包含在内
+     */
+    List<VoucherOrder> createVoucherOrders(List<VoucherOrder> voucherOrders);
+
+    /**
+     * 认领一批到期未支付的订单并取消，回滚数据库和Redis库存
+     * @return 认领到的订单数
+     */
+    int cancelTimeoutOrders();
+
+    /**
+     * 取消仍未支付的订单，回补数据库库存
+     * @param orderIds 订单id
+     * @return 已取消的订单，包括之前已经取消的
+     */
+    List<VoucherOrder> cancelUnpaidOrders(List<Long> orderIds);
 }
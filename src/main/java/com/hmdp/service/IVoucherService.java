@@ -1,9 +1,12 @@
 package com.hmdp.service;
 
 import com.hmdp.dto.Result;
+import com.hmdp.dto.SeckillStockDrift;
 import com.hmdp.entity.Voucher;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -17,4 +20,16 @@ public interface IVoucherService extends IService<Voucher> {
     Result queryVoucherOfShop(Long shopId);
 
     void addSeckillVoucher(Voucher voucher);
+
+    /**
+     * 将未结束的秒杀券库存预热到Redis，已存在的key不会被覆盖
+     */
+    void preheatSeckillStock();
+
+    /**
+     * 对比Redis库存、购买用户数与数据库订单数，报告偏差
+     * @param repair 是否修复偏差，还有订单未落库或读取后库存被并发修改的券本轮不修复
+     * @return 存在偏差的秒杀券
+     */
+    List<SeckillStockDrift> reconcileSeckillStock(boolean repair);
 }
@@ -1,10 +1,31 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.lang.UUID;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.mapper.SeckillVoucherMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_VOUCHER_EVICT_CHANNEL;
 
 /**
  * <p>
@@ -14,7 +35,104 @@ import org.springframework.stereotype.Service;
  * @author 虎哥
  * @since 2022-01-04
  */
+@Slf4j
 @Service
-public class SeckillVoucherServiceImpl extends ServiceImpl<SeckillVoucherMapper, SeckillVoucher> implements ISeckillVoucherService {
+public class SeckillVoucherServiceImpl extends ServiceImpl<SeckillVoucherMapper, SeckillVoucher> implements ISeckillVoucherService, MessageListener {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    /**
+     * 秒杀券元数据的本地缓存，只用于判断时间窗口和库存分片，库存以Redis为准
+     * 不存在的优惠券也缓存为空，避免无效id反复查询数据库
+     */
+    private final LoadingCache<Long, Optional<SeckillVoucher>> localCache = CacheBuilder.newBuilder()
+            .maximumSize(10000)
+            .expireAfterWrite(10, TimeUnit.MINUTES)
+            .build(new CacheLoader<Long, Optional<SeckillVoucher>>() {
+                @Override
+                public Optional<SeckillVoucher> load(Long voucherId) {
+                    return Optional.ofNullable(getById(voucherId));
+                }
+            });
+
+    /**
+     * 本节点标识，收到自己发出的清除消息时忽略，避免刚预热的缓存被清掉
+     */
+    private final String nodeId = UUID.randomUUID().toString(true);
+
+    @PostConstruct
+    private void init() {
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(SECKILL_VOUCHER_EVICT_CHANNEL));
+    }
+
+    @Override
+    public SeckillVoucher queryCachedById(Long voucherId) {
+        return localCache.getUnchecked(voucherId).orElse(null);
+    }
+
+    @Override
+    public void cacheSeckillVoucher(SeckillVoucher seckillVoucher) {
+        // 其它节点可能缓存了该优惠券不存在，需要通知清除；事务提交后再预热，回滚时不会缓存不存在的优惠券
+        evictSeckillVoucher(seckillVoucher.getVoucherId());
+        afterCommit(() -> localCache.put(seckillVoucher.getVoucherId(), Optional.of(seckillVoucher)));
+    }
+
+    @Override
+    public void evictSeckillVoucher(Long voucherId) {
+        localCache.invalidate(voucherId);
+        // 事务提交后再通知，否则其它节点可能在提交前重新加载到旧数据
+        afterCommit(() -> {
+            localCache.invalidate(voucherId);
+            stringRedisTemplate.convertAndSend(SECKILL_VOUCHER_EVICT_CHANNEL, nodeId + ":" + voucherId);
+        });
+    }
+
+    /**
+     * 处于事务中时在提交后执行，否则立即执行
+     */
+    private void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    @Override
+    public boolean updateById(SeckillVoucher entity) {
+        boolean success = super.updateById(entity);
+        evictSeckillVoucher(entity.getVoucherId());
+        return success;
+    }
+
+    @Override
+    public boolean removeById(Serializable id) {
+        boolean success = super.removeById(id);
+        evictSeckillVoucher((Long) id);
+        return success;
+    }
 
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        // 消息格式为 nodeId:voucherId
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        int index = body.indexOf(':');
+        if (index < 0 || body.substring(0, index).equals(nodeId)) {
+            return;
+        }
+        try {
+            localCache.invalidate(Long.valueOf(body.substring(index + 1)));
+        } catch (NumberFormatException e) {
+            log.error("秒杀券缓存清除消息格式错误：{}", body);
+        }
+    }
 }
@@ -1,27 +1,41 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.json.JSONUtil;
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
-import com.baomidou.mybatisplus.core.toolkit.StringUtils;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
 import com.hmdp.utils.RedisBloomFilter;
+import com.hmdp.utils.RedisCacheClient;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
@@ -37,10 +51,56 @@ import static com.hmdp.utils.RedisConstants.*;
  */
 @Service
 @Slf4j
-public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IShopService {
+public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IShopService, MessageListener {
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @Resource
+    private RedisCacheClient cacheClient;
+
+    /**
+     * 热点店铺id，使用逻辑过期缓存
+     */
+    @Value("${hmdp.cache.shop.hot-ids:}")
+    private Set<Long> hotShopIds;
+
+    /**
+     * 本地缓存的最大店铺数
+     */
+    @Value("${hmdp.cache.shop.local-size:10000}")
+    private long localCacheSize;
+
+    /**
+     * 本地缓存有效期，清除消息丢失时最多读到这么久的旧数据
+     */
+    @Value("${hmdp.cache.shop.local-ttl-seconds:60}")
+    private long localCacheTtlSeconds;
+
+    /**
+     * 店铺的本地缓存（L1），缓存反序列化后的对象，未命中时查Redis（L2）
+     * 店铺更新时通过Redis发布订阅通知所有节点清除
+     */
+    private Cache<Long, Shop> localCache;
+
+    /**
+     * 不存在的店铺id的本地缓存，与Redis中的空值有效期相同，新增店铺时通知所有节点清除
+     */
+    private Cache<Long, Boolean> missingCache;
+
+    /**
+     * 缓存穿透拦截次数，按拦截的层级区分：bloom 布隆过滤器、local 本地空值缓存、db 查数据库后确认不存在
+     * Redis空值缓存的拦截次数见 cache.requests{cache=cache:shop:,result=null}
+     */
+    private Counter bloomBlockedCounter;
+    private Counter localBlockedCounter;
+    private Counter dbBlockedCounter;
+
 //    @Resource
 //    private ShopBloomFilter shopBloomFilter;
 
@@ -48,82 +108,78 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     @Qualifier("shopBloomFilter")
     private RedisBloomFilter shopBloomFilter;
 
+    @PostConstruct
+    private void init() {
+        localCache = CacheBuilder.newBuilder()
+                .maximumSize(localCacheSize)
+                .expireAfterWrite(localCacheTtlSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        // L1命中率：cache.gets{cache=shop.local}，L2命中率：cache.requests{cache=cache:shop:}
+        GuavaCacheMetrics.monitor(meterRegistry, localCache, "shop.local");
+        missingCache = CacheBuilder.newBuilder()
+                .maximumSize(localCacheSize)
+                .expireAfterWrite(CACHE_NULL_TTL, TimeUnit.MINUTES)
+                .build();
+        bloomBlockedCounter = penetrationCounter("bloom");
+        localBlockedCounter = penetrationCounter("local");
+        dbBlockedCounter = penetrationCounter("db");
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(CACHE_SHOP_EVICT_CHANNEL));
+    }
+
     @Override
     public Result queryById(Long id) {
-        // 1. 检查布隆过滤器是否存在该商家id
-        if (!shopBloomFilter.mightContain(id.toString())) {
-            return Result.fail("布隆过滤器检查店铺不存在！");
+        // 1. 查本地缓存
+        Shop shop = localCache.getIfPresent(id);
+        if (shop != null) {
+            return Result.ok(shop);
         }
 
-        // 2. Redis查商家缓存
-        String key = CACHE_SHOP_KEY + id;
-        String shopJson = stringRedisTemplate.opsForValue().get(key);
-
-        // 3. 存在非空值，说明命中，直接返回
-        if (StringUtils.isNotBlank(shopJson)) {
-            Shop shop = JSONUtil.toBean(shopJson, Shop.class);
-            return Result.ok(shop);
+        // 2. 本地已确认不存在
+        if (missingCache.getIfPresent(id) != null) {
+            localBlockedCounter.increment();
+            return Result.fail("店铺不存在！");
         }
 
-        // 4. 不存在，获取Redis互斥锁查DB
-        String lockKey = LOCK_SHOP_KEY + id;
-        boolean lockAcquired = false;
+        // 3. 检查布隆过滤器是否存在该商家id
+        if (!shopBloomFilter.mightContain(id.toString())) {
+            bloomBlockedCounter.increment();
+            return Result.fail("布隆过滤器检查店铺不存在！");
+        }
 
+        // 4. 查Redis缓存，不存在的店铺缓存空值，热点店铺逻辑过期，过期后返回旧数据并异步重建；其它店铺未命中时互斥重建
         try {
-            // 尝试次数
-            int tryCnt = 0;
-
-            // 5. 判断是否获取成功，最多尝试获取5次锁
-            while (!lockAcquired && tryCnt < 5) {
-                // 失败则休眠重试
-                lockAcquired = tryLock(lockKey);
-                if (lockAcquired) {
-                    break;
-                }
-                tryCnt++;
-                Thread.sleep(50);
-            }
-
-
-            if (!lockAcquired) {
-                return Result.fail("获取互斥锁失败！");
-            }
-
-            log.debug("获取互斥锁成功");
-
-            // 6. 获取锁成功后再次检查缓存（DCL的第二重检查）
-            shopJson = stringRedisTemplate.opsForValue().get(key);
-            if (StringUtils.isNotBlank(shopJson)) {
-                Shop shop = JSONUtil.toBean(shopJson, Shop.class);
-                return Result.ok(shop);
-            }
-
-            // 7. 成功，则查DB
-            Shop shop = getById(id);
-            if (shop == null) {
-                return Result.fail("店铺不存在！");
-            }
-
-            // 8. 存在，写入Redis缓存
-            stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(shop), CACHE_SHOP_TTL, TimeUnit.MINUTES);
-            return Result.ok(shop);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        } finally {
-            // 9. 释放Redis互斥锁
-            if (lockAcquired) {
-                unlock(lockKey);
-            }
+            shop = hotShopIds.contains(id)
+                    ? cacheClient.queryWithLogicalExpire(CACHE_SHOP_HOT_KEY, id, Shop.class, this::loadShop, CACHE_SHOP_TTL, TimeUnit.MINUTES)
+                    : cacheClient.queryWithMutex(CACHE_SHOP_KEY, id, Shop.class, this::loadShop, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        } catch (IllegalStateException e) {
+            return Result.fail("获取互斥锁失败！");
         }
+        if (shop == null) {
+            missingCache.put(id, Boolean.TRUE);
+            return Result.fail("店铺不存在！");
+        }
+        // 5. 写入本地缓存
+        localCache.put(id, shop);
+        return Result.ok(shop);
     }
 
-    private boolean tryLock(String key) {
-        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", 5, TimeUnit.SECONDS);
-        return BooleanUtil.isTrue(flag);
+    /**
+     * 查数据库，店铺不存在时记录穿透到数据库的次数
+     */
+    private Shop loadShop(Long id) {
+        Shop shop = getById(id);
+        if (shop == null) {
+            dbBlockedCounter.increment();
+        }
+        return shop;
     }
 
-    private void unlock(String key) {
-        stringRedisTemplate.delete(key);
+    private Counter penetrationCounter(String layer) {
+        return Counter.builder("shop.penetration.blocked")
+                .description("不存在的店铺id被拦截的次数")
+                .tag("layer", layer)
+                .register(meterRegistry);
     }
 
     @Override
@@ -133,13 +189,20 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         if (id == null) {
             return Result.fail("店铺id不能为空");
         }
-        String key = CACHE_SHOP_KEY + id;
-
         // 1. 更新DB
         updateById(shop);
 
-        // 2. 删除Redis缓存
-        stringRedisTemplate.delete(key);
+        // 2. 事务提交后再清除缓存，避免提交前被其它请求用旧数据重建
+        afterCommit(() -> {
+            // 2.1 删除Redis缓存，热点店铺直接用最新数据覆盖，避免删除后的首次查询全部等待互斥锁
+            stringRedisTemplate.delete(CACHE_SHOP_KEY + id);
+            if (hotShopIds.contains(id)) {
+                cacheClient.setWithLogicalExpire(CACHE_SHOP_HOT_KEY + id, getById(id), CACHE_SHOP_TTL, TimeUnit.MINUTES);
+            }
+            // 2.2 清除本地缓存，并通知其它节点清除
+            localCache.invalidate(id);
+            stringRedisTemplate.convertAndSend(CACHE_SHOP_EVICT_CHANNEL, id.toString());
+        });
         return Result.ok();
     }
 
@@ -148,12 +211,35 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     public Result saveShop(Shop shop) {
         // 新增记录到DB
         save(shop);
-        // 添加到布隆过滤器
-        shopBloomFilter.add(shop.getId().toString());
+        Long id = shop.getId();
+        afterCommit(() -> {
+            // 删除之前可能缓存的空值，并通知所有节点清除本地空值缓存
+            stringRedisTemplate.delete(Arrays.asList(CACHE_SHOP_KEY + id, CACHE_SHOP_HOT_KEY + id));
+            missingCache.invalidate(id);
+            stringRedisTemplate.convertAndSend(CACHE_SHOP_EVICT_CHANNEL, id.toString());
+            // 添加到布隆过滤器
+            shopBloomFilter.add(id.toString());
+        });
         // 返回店铺id
         return Result.ok(shop.getId());
     }
 
+    /**
+     * 在当前事务提交后执行，没有事务时立即执行
+     */
+    private void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
     @Override
     public void loadAllShopIdToBloomFilter() {
         int offset = 0;
@@ -185,4 +271,29 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         } while (shopIds.size() == batchSize);
         log.debug("初始化商家id到布隆过滤器，共 {} 条数据", totalCnt);
     }
+
+    @Override
+    public void preloadHotShops() {
+        if (hotShopIds.isEmpty()) {
+            return;
+        }
+        List<Shop> shops = listByIds(hotShopIds);
+        for (Shop shop : shops) {
+            cacheClient.setWithLogicalExpire(CACHE_SHOP_HOT_KEY + shop.getId(), shop, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        }
+        log.debug("预热热点店铺缓存，共 {} 条数据", shops.size());
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        // 消息内容为店铺id
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        try {
+            Long id = Long.valueOf(body);
+            localCache.invalidate(id);
+            missingCache.invalidate(id);
+        } catch (NumberFormatException e) {
+            log.error("店铺缓存清除消息格式错误：{}", body);
+        }
+    }
 }
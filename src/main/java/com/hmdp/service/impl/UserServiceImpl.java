@@ -11,6 +11,7 @@ import com.hmdp.entity.User;
 import com.hmdp.mapper.UserMapper;
 import com.hmdp.service.IUserService;
 import com.hmdp.utils.RegexUtils;
+import com.hmdp.utils.TtlJitter;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
@@ -39,6 +40,9 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private TtlJitter ttlJitter;
+
     @Override
     public Result sendCode(String phone, HttpSession session) {
         // 1.校验手机号
@@ -95,7 +99,8 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
         // 7.3 用hash类型将userDTO保存到redis
         stringRedisTemplate.opsForHash().putAll(LOGIN_USER_KEY+ token, BeanUtil.beanToMap(userMap   ));
         // 7.4 设置token有效期，但是session有效期会随每次请求更新，因此要在拦截器中动态更新
-        stringRedisTemplate.expire(LOGIN_USER_KEY + token, LOGIN_USER_TTL, TimeUnit.MINUTES);
+        stringRedisTemplate.expire(LOGIN_USER_KEY + token,
+                ttlJitter.jitter(LOGIN_USER_KEY + token, LOGIN_USER_TTL, TimeUnit.MINUTES), TimeUnit.MILLISECONDS);
 
         // 8.返回token
         return Result.ok(token);
@@ -1,6 +1,12 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.net.NetUtil;
+import cn.hutool.core.util.RuntimeUtil;
+import cn.hutool.core.util.StrUtil;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.SeckillBatchItem;
+import com.hmdp.dto.SeckillQueueStatus;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.VoucherOrderMapper;
@@ -8,18 +14,60 @@ import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.utils.RedisIdWorker;
-import com.hmdp.utils.SimpleRedisLock;
+import com.hmdp.utils.SeckillDedupUtils;
+import com.hmdp.utils.SeckillOrderTimeoutQueue;
+import com.hmdp.utils.SeckillResultRegistry;
+import com.hmdp.utils.SeckillWaitingRoom;
+import com.hmdp.utils.SeckillSoldOutRegistry;
+import com.hmdp.utils.SeckillStockUtils;
+import com.hmdp.utils.SeckillUserLock;
 import com.hmdp.utils.UserHolder;
-import org.redisson.api.RLock;
-import org.redisson.api.RedissonClient;
-import org.springframework.aop.framework.AopContext;
-import org.springframework.beans.factory.annotation.Autowired;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.RedisStreamCommands.XClaimOptions;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.context.request.async.DeferredResult;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_GROUP;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STREAM_KEY;
+import static com.hmdp.utils.SystemConstants.ORDER_STATUS_CANCELLED;
+import static com.hmdp.utils.SystemConstants.ORDER_STATUS_UNPAID;
 
 /**
  * <p>
@@ -29,6 +77,7 @@ import java.time.LocalDateTime;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, VoucherOrder> implements IVoucherOrderService {
 
@@ -42,85 +91,630 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     private StringRedisTemplate stringRedisTemplate;
 
     @Resource
-    private RedissonClient redissonClient;
+    private SeckillSoldOutRegistry seckillSoldOutRegistry;
+
+    @Resource
+    private SeckillResultRegistry seckillResultRegistry;
+
+    @Resource
+    private SeckillWaitingRoom seckillWaitingRoom;
+
+    @Resource
+    private SeckillOrderTimeoutQueue seckillOrderTimeoutQueue;
+
+    @Resource
+    private SeckillUserLock seckillUserLock;
+
+    private static final DefaultRedisScript<List> SECKILL_SCRIPT;
+    private static final DefaultRedisScript<Long> ROLLBACK_SCRIPT;
+
+    static {
+        SECKILL_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
+        SECKILL_SCRIPT.setResultType(List.class);
+
+        ROLLBACK_SCRIPT = new DefaultRedisScript<>();
+        ROLLBACK_SCRIPT.setLocation(new ClassPathResource("seckill_rollback.lua"));
+        ROLLBACK_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 批量秒杀一次最多的优惠券数
+     */
+    private static final int MAX_BATCH_VOUCHERS = 10;
+
+    /**
+     * 同一条消息最多投递次数，超过后标记订单失败
+     */
+    private static final int MAX_DELIVERIES = 5;
+
+    /**
+     * 每次检查的pending-list消息数
+     */
+    private static final int CLAIM_SCAN_SIZE = 1000;
+
+    /**
+     * 异步下单的单线程执行器
+     */
+    private static final ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    /**
+     * 消费者名称，同一节点重启后保持不变时可直接读回自己的pending-list
+     * 为空时使用 主机名-进程号，同一主机上的多个进程不会共用pending-list，重启前未确认的消息由其它节点认领
+     */
+    @Value("${hmdp.seckill.consumer-name:}")
+    private String consumerName;
+
+    /**
+     * 消息投递后超过该时间仍未确认，视为消费者已宕机，由其它节点认领，单位毫秒
+     */
+    @Value("${hmdp.seckill.claim-idle-ms:60000}")
+    private long claimIdleMs;
+
+    /**
+     * 检查其它消费者超时未确认消息的间隔，单位毫秒
+     */
+    @Value("${hmdp.seckill.claim-interval-ms:30000}")
+    private long claimIntervalMs;
+
+    /**
+     * 每批写入数据库的最大订单数，达到后立即刷盘
+     */
+    @Value("${hmdp.seckill.batch-size:100}")
+    private int batchSize;
+
+    /**
+     * 批次最长等待时间，未攒满也会刷盘，单位毫秒
+     */
+    @Value("${hmdp.seckill.flush-interval-ms:200}")
+    private long flushIntervalMs;
+
+    /**
+     * 每次认领的超时订单数
+     */
+    @Value("${hmdp.seckill.timeout-batch-size:500}")
+    private int timeoutBatchSize;
+
+    /**
+     * 代理对象，子线程中无法通过AopContext获取，且重启后处理pending-list时还没有请求进来，因此延迟注入自身代理
+     */
+    @Lazy
+    @Resource
+    private IVoucherOrderService proxy;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    private DistributionSummary batchSizeSummary;
+
+    private Timer flushTimer;
+
+    private Counter persistedRowsCounter;
+
+    private volatile boolean running = true;
+
+    @PostConstruct
+    private void init() {
+        if (StrUtil.isBlank(consumerName)) {
+            consumerName = NetUtil.getLocalHostName() + "-" + RuntimeUtil.getPid();
+        }
+        // 批次指标：批大小、刷盘耗时、写入行数（按时间求速率即为rows/sec）
+        batchSizeSummary = DistributionSummary.builder("seckill.order.batch.size")
+                .description("每批写入的订单数")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        flushTimer = Timer.builder("seckill.order.batch.flush")
+                .description("每批订单写入数据库的耗时")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        persistedRowsCounter = Counter.builder("seckill.order.persisted.rows")
+                .description("实际写入数据库的订单行数")
+                .register(meterRegistry);
+        createGroupIfAbsent();
+        SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandler());
+    }
+
+    @PreDestroy
+    private void destroy() {
+        running = false;
+        SECKILL_ORDER_EXECUTOR.shutdown();
+    }
+
+    /**
+     * 创建消费者组，XGROUP CREATE stream.orders g1 0 MKSTREAM
+     */
+    private void createGroupIfAbsent() {
+        try {
+            stringRedisTemplate.execute((RedisCallback<Object>) connection -> connection.execute("XGROUP",
+                    "CREATE".getBytes(StandardCharsets.UTF_8),
+                    SECKILL_ORDER_STREAM_KEY.getBytes(StandardCharsets.UTF_8),
+                    SECKILL_ORDER_GROUP.getBytes(StandardCharsets.UTF_8),
+                    "0".getBytes(StandardCharsets.UTF_8),
+                    "MKSTREAM".getBytes(StandardCharsets.UTF_8)));
+        } catch (Exception e) {
+            // 消费者组已存在时会报BUSYGROUP，忽略即可
+            log.debug("消费者组已存在：{}", e.getMessage());
+        }
+    }
+
+    private class VoucherOrderHandler implements Runnable {
+        @Override
+        public void run() {
+            // 启动时先处理上次未确认的消息
+            handlePendingList();
+            // 当前批次，未刷盘前消息都在pending-list中，宕机也不会丢失
+            List<MapRecord<String, Object, Object>> buffer = new ArrayList<>(batchSize);
+            long deadline = 0;
+            long nextClaimTime = System.currentTimeMillis() + claimIntervalMs;
+            while (running) {
+                try {
+                    // 0. 批次为空时定期认领其它消费者超时未确认的消息，避免宕机节点的消息永远停留在pending-list中
+                    if (buffer.isEmpty() && System.currentTimeMillis() >= nextClaimTime) {
+                        nextClaimTime = System.currentTimeMillis() + claimIntervalMs;
+                        if (claimIdlePending() > 0) {
+                            handlePendingList();
+                        }
+                    }
+                    // 1. 获取消息队列中的订单信息 XREADGROUP GROUP g1 c1 COUNT n BLOCK t STREAMS stream.orders >
+                    long blockMs = buffer.isEmpty() ? 2000 : Math.max(1, deadline - System.currentTimeMillis());
+                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                            Consumer.from(SECKILL_ORDER_GROUP, consumerName),
+                            StreamReadOptions.empty().count(batchSize - buffer.size()).block(Duration.ofMillis(blockMs)),
+                            StreamOffset.create(SECKILL_ORDER_STREAM_KEY, ReadOffset.lastConsumed())
+                    );
+                    // 2. 放入当前批次，批次的第一条消息决定刷盘时间
+                    if (list != null && !list.isEmpty()) {
+                        if (buffer.isEmpty()) {
+                            deadline = System.currentTimeMillis() + flushIntervalMs;
+                        }
+                        buffer.addAll(list);
+                    }
+                    // 3. 攒满或超时，批量创建订单并确认消息
+                    if (buffer.size() >= batchSize
+                            || (!buffer.isEmpty() && System.currentTimeMillis() >= deadline)) {
+                        handleRecords(buffer);
+                        buffer.clear();
+                    }
+                } catch (Exception e) {
+                    log.error("处理订单异常", e);
+                    // 4. 出现异常，消息停留在pending-list中，重新处理
+                    buffer.clear();
+                    handlePendingList();
+                }
+            }
+        }
+    }
+
+    private void handlePendingList() {
+        while (running) {
+            List<MapRecord<String, Object, Object>> list = null;
+            try {
+                // 1. 获取pending-list中的订单信息 XREADGROUP GROUP g1 c1 COUNT n STREAMS stream.orders 0
+                list = stringRedisTemplate.opsForStream().read(
+                        Consumer.from(SECKILL_ORDER_GROUP, consumerName),
+                        StreamReadOptions.empty().count(batchSize),
+                        StreamOffset.create(SECKILL_ORDER_STREAM_KEY, ReadOffset.from("0"))
+                );
+                // 2. 判断消息获取是否成功
+                if (list == null || list.isEmpty()) {
+                    // 2.1. 如果获取失败，说明pending-list没有异常消息，结束循环
+                    break;
+                }
+                // 3. 批量创建订单并确认消息
+                handleRecords(list);
+            } catch (Exception e) {
+                log.error("处理pending-list订单异常", e);
+                // 4. 逐条重试，避免一条坏消息阻塞整个pending-list
+                if (list != null && !list.isEmpty()) {
+                    isolateFailedRecords(list);
+                }
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 认领其它消费者投递后超过 claimIdleMs 仍未确认的消息，XCLAIM 带最小空闲时间，多个节点同时认领时只有一个成功
+     * @return 认领到的消息数
+     */
+    private int claimIdlePending() {
+        // 1. 查询pending-list中最早的一批消息 XPENDING stream.orders g1 - + n
+        PendingMessages pending = stringRedisTemplate.opsForStream().pending(SECKILL_ORDER_STREAM_KEY,
+                SECKILL_ORDER_GROUP, Range.unbounded(), CLAIM_SCAN_SIZE);
+        List<RecordId> idleIds = new ArrayList<>();
+        for (PendingMessage message : pending) {
+            if (!consumerName.equals(message.getConsumerName())
+                    && message.getElapsedTimeSinceLastDelivery().toMillis() >= claimIdleMs) {
+                idleIds.add(message.getId());
+            }
+        }
+        if (idleIds.isEmpty()) {
+            return 0;
+        }
+        // 2. 认领到自己名下 XCLAIM stream.orders g1 c1 minIdle id1 id2 ... JUSTID，之后和自己的pending-list一起处理
+        List<RecordId> claimed = stringRedisTemplate.execute((RedisCallback<List<RecordId>>) connection ->
+                connection.streamCommands().xClaimJustId(SECKILL_ORDER_STREAM_KEY.getBytes(StandardCharsets.UTF_8),
+                        SECKILL_ORDER_GROUP, consumerName,
+                        XClaimOptions.minIdleMs(claimIdleMs).ids(idleIds.toArray(new RecordId[0]))));
+        int count = claimed == null ? 0 : claimed.size();
+        if (count > 0) {
+            log.warn("认领其它消费者超时未确认的订单消息 {} 条", count);
+        }
+        return count;
+    }
+
+    /**
+     * 逐条处理消息，多次投递仍失败的订单标记为失败并确认，不再重试
+     */
+    private void isolateFailedRecords(List<MapRecord<String, Object, Object>> list) {
+        for (MapRecord<String, Object, Object> record : list) {
+            try {
+                handleRecords(Collections.singletonList(record));
+            } catch (Exception e) {
+                PendingMessages pending = stringRedisTemplate.opsForStream().pending(SECKILL_ORDER_STREAM_KEY,
+                        Consumer.from(SECKILL_ORDER_GROUP, consumerName),
+                        Range.closed(record.getId().getValue(), record.getId().getValue()), 1);
+                if (pending.isEmpty() || pending.get(0).getTotalDeliveryCount() < MAX_DELIVERIES) {
+                    continue;
+                }
+                VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true);
+                log.error("订单多次处理失败，不再重试：{}", voucherOrder, e);
+                seckillResultRegistry.markFailed(Collections.singletonList(voucherOrder));
+                rollbackSeckill(Collections.singletonList(voucherOrder));
+                stringRedisTemplate.opsForStream().acknowledge(SECKILL_ORDER_STREAM_KEY, SECKILL_ORDER_GROUP, record.getId());
+            }
+        }
+    }
+
+    private void handleRecords(List<MapRecord<String, Object, Object>> list) {
+        // 1. 解析消息中的订单信息
+        List<VoucherOrder> voucherOrders = new ArrayList<>(list.size());
+        RecordId[] recordIds = new RecordId[list.size()];
+        for (int i = 0; i < list.size(); i++) {
+            MapRecord<String, Object, Object> record = list.get(i);
+            voucherOrders.add(BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true));
+            recordIds[i] = record.getId();
+        }
+        // 2. 批量创建订单
+        long begin = System.nanoTime();
+        List<VoucherOrder> created = proxy.createVoucherOrders(voucherOrders);
+        flushTimer.record(System.nanoTime() - begin, TimeUnit.NANOSECONDS);
+        batchSizeSummary.record(voucherOrders.size());
+        persistedRowsCounter.increment(created.size());
+        // 3. 更新下单结果，唤醒长轮询的请求
+        seckillResultRegistry.markPersisted(voucherOrders);
+        // 4. 新写入的订单加入支付超时队列，到期未支付自动取消
+        seckillOrderTimeoutQueue.add(created);
+        // 5. 批量ACK确认 XACK stream.orders g1 id1 id2 ...
+        stringRedisTemplate.opsForStream().acknowledge(SECKILL_ORDER_STREAM_KEY, SECKILL_ORDER_GROUP, recordIds);
+    }
 
     @Override
     public Result seckillVoucher(Long voucherId) {
-        // 1. 查优惠券
-        SeckillVoucher voucher = seckillVoucherService.getById(voucherId);
+        SeckillAttempt attempt = seckill(Collections.singletonList(voucherId), true).get(0);
+        return attempt.error == null ? Result.ok(attempt.orderId) : Result.fail(attempt.error);
+    }
+
+    @Override
+    public String checkSeckillVoucher(Long voucherId) {
+        SeckillAttempt attempt = new SeckillAttempt(voucherId);
+        attempt.voucher = seckillVoucherService.queryCachedById(voucherId);
+        return checkVoucher(attempt, LocalDateTime.now());
+    }
+
+    @Override
+    public Result seckillVouchers(List<Long> voucherIds, boolean bestEffort) {
+        if (voucherIds == null || voucherIds.isEmpty()) {
+            return Result.fail("请选择优惠券！");
+        }
+        List<Long> distinctIds = voucherIds.stream().distinct().collect(Collectors.toList());
+        if (distinctIds.size() > MAX_BATCH_VOUCHERS) {
+            return Result.fail("一次最多抢购" + MAX_BATCH_VOUCHERS + "张优惠券！");
+        }
+        List<SeckillBatchItem> items = seckill(distinctIds, !bestEffort).stream()
+                .map(a -> new SeckillBatchItem(a.voucherId, a.error == null ? a.orderId : null, a.error))
+                .collect(Collectors.toList());
+        return Result.ok(items);
+    }
 
+    /**
+     * 为当前用户抢购一张或多张优惠券，所有优惠券的库存判断、扣减和订单消息在一次Lua调用中完成
+     * @param voucherIds 优惠券id，不重复
+     * @param allOrNothing true 全部成功或全部失败；false 能抢到的都下单
+     * @return 每张优惠券的结果
+     */
+    private List<SeckillAttempt> seckill(List<Long> voucherIds, boolean allOrNothing) {
+        Long userId = UserHolder.getUser().getId();
+        // 同一用户在本节点串行下单，连点的请求等前一个完成后由Lua脚本判断为重复下单
+        try (SeckillUserLock.Holder ignored = seckillUserLock.tryLock(userId)) {
+            if (ignored == null) {
+                return voucherIds.stream().map(voucherId -> {
+                    SeckillAttempt attempt = new SeckillAttempt(voucherId);
+                    attempt.error = "请勿重复提交！";
+                    return attempt;
+                }).collect(Collectors.toList());
+            }
+            return seckill(voucherIds, allOrNothing, userId);
+        }
+    }
+
+    private List<SeckillAttempt> seckill(List<Long> voucherIds, boolean allOrNothing, Long userId) {
+        List<SeckillAttempt> attempts = new ArrayList<>(voucherIds.size());
+        LocalDateTime now = LocalDateTime.now();
+        // 1. 查优惠券，走本地缓存，售罄、未开始和已结束的请求在内存中即可拒绝
+        for (Long voucherId : voucherIds) {
+            SeckillAttempt attempt = new SeckillAttempt(voucherId);
+            attempt.voucher = seckillVoucherService.queryCachedById(voucherId);
+            attempt.error = checkVoucher(attempt, now);
+            attempts.add(attempt);
+        }
+        if (allOrNothing && failOthers(attempts)) {
+            return attempts;
+        }
+
+        // 2. 执行Lua脚本，原子地判断库存和购买资格，扣减Redis库存并发送订单消息
+        List<SeckillAttempt> admitted = attempts.stream().filter(a -> a.error == null).collect(Collectors.toList());
+        if (admitted.isEmpty()) {
+            return attempts;
+        }
+        List<String> args = new ArrayList<>(3 + admitted.size() * 6);
+        args.add(userId.toString());
+        args.add(SeckillDedupUtils.day(now.toLocalDate()));
+        args.add(allOrNothing ? "0" : "1");
+        for (SeckillAttempt attempt : admitted) {
+            SeckillVoucher voucher = attempt.voucher;
+            attempt.orderId = redisIdWorker.nextId("order");
+            args.add(attempt.voucherId.toString());
+            args.add(String.valueOf(attempt.orderId));
+            args.add(String.valueOf(SeckillStockUtils.normalizeShards(voucher.getStockShards())));
+            args.add(String.valueOf(SeckillDedupUtils.normalizeMode(voucher.getDedupMode())));
+            args.add(String.valueOf(SeckillDedupUtils.normalizeLimit(voucher.getLimitPerUser())));
+            args.add(String.valueOf(voucher.getLimitDaily() == null ? 0 : voucher.getLimitDaily()));
+        }
+        List<?> results = stringRedisTemplate.execute(
+                SECKILL_SCRIPT,
+                Collections.singletonList(SECKILL_ORDER_STREAM_KEY),
+                args.toArray()
+        );
+
+        // 3. 判断每张优惠券的结果
+        for (int i = 0; i < admitted.size(); i++) {
+            SeckillAttempt attempt = admitted.get(i);
+            attempt.error = handleResult(attempt, ((Long) results.get(i)).intValue());
+        }
+        return attempts;
+    }
+
+    private String checkVoucher(SeckillAttempt attempt, LocalDateTime now) {
+        // 1. 本地已标记售罄，直接拒绝，无需任何网络IO
+        if (seckillSoldOutRegistry.isSoldOut(attempt.voucherId)) {
+            return "库存不足！";
+        }
+        SeckillVoucher voucher = attempt.voucher;
         if (voucher == null) {
             // 优惠券不存在
-            return Result.fail("优惠券不存在！");
+            return "优惠券不存在！";
         }
-
         // 2. 判断秒杀是否开始
-        if (voucher.getBeginTime().isAfter(LocalDateTime.now())) {
-            // 未开始
-            return Result.fail("秒杀未开始！");
+        if (voucher.getBeginTime().isAfter(now)) {
+            return "秒杀未开始！";
         }
-
         // 3. 判断秒杀是否结束
-        if (voucher.getEndTime().isBefore(LocalDateTime.now())) {
-            // 未开始
-            return Result.fail("秒杀已结束！");
+        if (voucher.getEndTime().isBefore(now)) {
+            return "秒杀已结束！";
         }
+        return null;
+    }
 
-        Long userId = UserHolder.getUser().getId();
-//        SimpleRedisLock redisLock = new SimpleRedisLock("order:" + userId, stringRedisTemplate);
-        RLock redisLock = redissonClient.getLock("order:" + userId);
+    /**
+     * 全部成功模式下有优惠券失败时，其它优惠券也不再下单
+     * @return 是否有优惠券失败
+     */
+    private boolean failOthers(List<SeckillAttempt> attempts) {
+        if (attempts.stream().allMatch(a -> a.error == null)) {
+            return false;
+        }
+        for (SeckillAttempt attempt : attempts) {
+            if (attempt.error == null) {
+                attempt.error = "其它优惠券无法下单！";
+            }
+        }
+        return true;
+    }
 
-        // 尝试获取锁
-        boolean isLock = redisLock.tryLock();
-        if (!isLock) {
-            // 获取锁失败
-            return Result.fail("不能重复下单！");
+    private String handleResult(SeckillAttempt attempt, int r) {
+        Long voucherId = attempt.voucherId;
+        if (r == 0) {
+            return null;
         }
-        try {
-            IVoucherOrderService proxy = (IVoucherOrderService) AopContext.currentProxy();
-            return proxy.createVoucherOrder(voucherId, voucher);
-        } finally {
-            redisLock.unlock();
+        if (r == 1) {
+            // 库存不足，标记售罄并通知其它节点
+            seckillSoldOutRegistry.markSoldOut(voucherId);
+            return "库存不足！";
         }
+        if (r == 3) {
+            // 库存尚未预热到Redis，不能当作售罄处理
+            log.error("秒杀库存未加载，voucherId：{}", voucherId);
+            return "系统繁忙，请稍后再试！";
+        }
+        if (r == 5) {
+            return "今日购买数量已达上限！";
+        }
+        if (r == 6) {
+            return "其它优惠券无法下单！";
+        }
+        return SeckillDedupUtils.normalizeLimit(attempt.voucher.getLimitPerUser()) == 1
+                ? "不能重复下单！" : "购买数量已达上限！";
     }
 
-    @Transactional
-    public Result createVoucherOrder(Long voucherId, SeckillVoucher voucher) {
-        // 4. 判断用户是否重复下单
-        Long userId = UserHolder.getUser().getId();
-        int count = query().eq("user_id", userId).eq("voucher_id", voucherId).count();
-        if (count > 0) {
-            // 用户已经购买过了
-            return Result.fail("用户已经购买过一次！");
+    /**
+     * 一次秒杀请求中一张优惠券的下单状态
+     */
+    private static class SeckillAttempt {
+        private final Long voucherId;
+        private SeckillVoucher voucher;
+        private long orderId;
+        private String error;
+
+        private SeckillAttempt(Long voucherId) {
+            this.voucherId = voucherId;
         }
+    }
 
-        // 5. 判断库存是否充足
-        if (voucher.getStock() < 1) {
-            // 库存不足
+    @Override
+    public Result joinSeckillQueue(Long voucherId) {
+        if (!seckillWaitingRoom.isEnabled()) {
+            return Result.fail("秒杀无需排队！");
+        }
+        // 1. 已售罄或已结束的优惠券不再排队
+        if (seckillSoldOutRegistry.isSoldOut(voucherId)) {
             return Result.fail("库存不足！");
         }
+        SeckillVoucher voucher = seckillVoucherService.queryCachedById(voucherId);
+        if (voucher == null) {
+            return Result.fail("优惠券不存在！");
+        }
+        if (voucher.getEndTime().isBefore(LocalDateTime.now())) {
+            return Result.fail("秒杀已结束！");
+        }
+        // 2. 领取排队号
+        return Result.ok(seckillWaitingRoom.join(voucherId, UserHolder.getUser().getId()));
+    }
 
-        // 6. 扣减库存
-        boolean success = seckillVoucherService.update()
-                .setSql("stock = stock - 1")
-                .gt("stock",  0)
-                .eq("voucher_id", voucherId).update();
-        if (!success) {
-            return Result.fail("库存不足！");
+    @Override
+    public Result querySeckillQueue(Long voucherId) {
+        if (!seckillWaitingRoom.isEnabled()) {
+            return Result.fail("秒杀无需排队！");
         }
+        SeckillQueueStatus status = seckillWaitingRoom.query(voucherId, UserHolder.getUser().getId());
+        if (status == null) {
+            return Result.fail("请先排队！");
+        }
+        return Result.ok(status);
+    }
 
-        // 6. 创建订单
-        VoucherOrder voucherOrder = new VoucherOrder();
-        // 6.1. 订单id
-        long orderId = redisIdWorker.nextId("order");
-        voucherOrder.setId(orderId);
-        // 6.2. 用户id
-        voucherOrder.setUserId(userId);
-        // 6.3. 代金券id
-        voucherOrder.setVoucherId(voucherId);
-        save(voucherOrder);
+    @Override
+    public DeferredResult<Result> querySeckillResult(Long voucherId, Long orderId, long timeoutMs) {
+        Long userId = UserHolder.getUser().getId();
+        return seckillResultRegistry.await(voucherId, userId, orderId, timeoutMs);
+    }
 
-        // 7. 返回订单id
-        return Result.ok(orderId);
+    @Override
+    @Transactional
+    public List<VoucherOrder> createVoucherOrders(List<VoucherOrder> voucherOrders) {
+        // 1. 过滤已写入的订单，消息重复投递时不再重复扣减库存和加入超时队列
+        List<Long> orderIds = voucherOrders.stream().map(VoucherOrder::getId).collect(Collectors.toList());
+        Set<Long> existing = query().select("id").in("id", orderIds).list().stream()
+                .map(VoucherOrder::getId).collect(Collectors.toSet());
+        List<VoucherOrder> created = voucherOrders.stream()
+                .filter(order -> !existing.contains(order.getId()))
+                .collect(Collectors.toList());
+        // 2. 按优惠券分组，每张券一条多行INSERT和一次库存扣减
+        Map<Long, List<VoucherOrder>> ordersByVoucher = created.stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId));
+        for (Map.Entry<Long, List<VoucherOrder>> entry : ordersByVoucher.entrySet()) {
+            Long voucherId = entry.getKey();
+            // 3. 批量创建订单，INSERT IGNORE 按订单id去重，兜底其它节点并发写入同一订单
+            int inserted = getBaseMapper().insertBatchIgnore(entry.getValue());
+            if (inserted == 0) {
+                continue;
+            }
+            // 4. 扣减库存，只扣实际新写入的订单数
+            boolean success = seckillVoucherService.update()
+                    .setSql("stock = stock - " + inserted)
+                    .ge("stock", inserted)
+                    .eq("voucher_id", voucherId).update();
+            if (!success) {
+                // Redis与数据库库存不一致，整批回滚，由逐条重试找出问题订单，多次失败后标记失败并回滚Redis
+                throw new IllegalStateException("数据库库存不足以扣减，voucherId：" + voucherId + "，数量：" + inserted);
+            }
+        }
+        return created;
+    }
+
+    @Override
+    public int cancelTimeoutOrders() {
+        // 1. 认领到期未支付的订单
+        List<String> members = seckillOrderTimeoutQueue.claim(timeoutBatchSize);
+        if (members.isEmpty()) {
+            return 0;
+        }
+        List<Long> orderIds = members.stream().map(SeckillOrderTimeoutQueue::orderId).collect(Collectors.toList());
+        // 2. 取消仍未支付的订单，回补数据库库存
+        List<VoucherOrder> cancelled = proxy.cancelUnpaidOrders(orderIds);
+        // 3. 回滚Redis中的库存和购买记录，之前取消过但回滚失败的订单也会在这里重试
+        rollbackSeckill(cancelled);
+        // 4. 更新下单结果为已取消，轮询中的客户端不会再看到已创建
+        seckillResultRegistry.markCancelled(cancelled);
+        // 5. 移出超时队列，已支付的订单也一并移出
+        seckillOrderTimeoutQueue.remove(members);
+        return members.size();
+    }
+
+    @Override
+    @Transactional
+    public List<VoucherOrder> cancelUnpaidOrders(List<Long> orderIds) {
+        // 1. 按主键锁定订单，避免与支付并发修改
+        List<VoucherOrder> orders = query()
+                .select("id", "user_id", "voucher_id", "status", "create_time")
+                .in("id", orderIds)
+                .last("FOR UPDATE")
+                .list();
+        List<VoucherOrder> unpaid = orders.stream()
+                .filter(o -> o.getStatus() == ORDER_STATUS_UNPAID)
+                .collect(Collectors.toList());
+        if (!unpaid.isEmpty()) {
+            // 2. 批量取消
+            update().set("status", ORDER_STATUS_CANCELLED)
+                    .in("id", unpaid.stream().map(VoucherOrder::getId).collect(Collectors.toList()))
+                    .eq("status", ORDER_STATUS_UNPAID)
+                    .update();
+            // 3. 按优惠券回补库存
+            Map<Long, Long> countByVoucher = unpaid.stream()
+                    .collect(Collectors.groupingBy(VoucherOrder::getVoucherId, Collectors.counting()));
+            for (Map.Entry<Long, Long> entry : countByVoucher.entrySet()) {
+                seckillVoucherService.update()
+                        .setSql("stock = stock + " + entry.getValue())
+                        .eq("voucher_id", entry.getKey()).update();
+            }
+            log.info("取消超时未支付订单 {} 个", unpaid.size());
+        }
+        // 4. 返回所有已取消的订单
+        return orders.stream()
+                .filter(o -> o.getStatus() == ORDER_STATUS_UNPAID || o.getStatus() == ORDER_STATUS_CANCELLED)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * 回滚订单在Redis中的秒杀资格，归还库存并移除购买记录，一次Lua调用处理一批，每个订单只回滚一次
+     */
+    private void rollbackSeckill(List<VoucherOrder> orders) {
+        if (orders.isEmpty()) {
+            return;
+        }
+        String[] args = new String[orders.size() * 6];
+        for (int i = 0; i < orders.size(); i++) {
+            VoucherOrder order = orders.get(i);
+            SeckillVoucher voucher = seckillVoucherService.queryCachedById(order.getVoucherId());
+            // 未落库的订单没有创建时间，按当天处理
+            LocalDate day = order.getCreateTime() == null ? LocalDate.now() : order.getCreateTime().toLocalDate();
+            args[6 * i] = order.getId().toString();
+            args[6 * i + 1] = order.getVoucherId().toString();
+            args[6 * i + 2] = order.getUserId().toString();
+            args[6 * i + 3] = String.valueOf(SeckillDedupUtils.normalizeMode(voucher == null ? null : voucher.getDedupMode()));
+            args[6 * i + 4] = String.valueOf(SeckillStockUtils.normalizeShards(voucher == null ? null : voucher.getStockShards()));
+            args[6 * i + 5] = SeckillDedupUtils.day(day);
+        }
+        Long rolled = stringRedisTemplate.execute(ROLLBACK_SCRIPT, Collections.emptyList(), (Object[]) args);
+        if (rolled == null || rolled == 0) {
+            return;
+        }
+        // 库存回补后清除各节点的售罄标记
+        orders.stream().map(VoucherOrder::getVoucherId).distinct().forEach(seckillSoldOutRegistry::restock);
     }
 }
@@ -1,25 +1,59 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.util.BooleanUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.SeckillStockDrift;
 import com.hmdp.entity.Voucher;
 import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IVoucherOrderService;
 import com.hmdp.service.IVoucherService;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.SeckillDedupUtils;
+import com.hmdp.utils.SeckillSoldOutRegistry;
+import com.hmdp.utils.SeckillStockUtils;
 import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.connection.RedisStringCommands.SetOption;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessagesSummary;
+import org.springframework.data.redis.connection.stream.StreamInfo;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.types.Expiration;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Resource;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_GROUP;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STREAM_KEY;
 import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+import static com.hmdp.utils.SystemConstants.ORDER_STATUS_CANCELLED;
 
 /**
  * <p>
@@ -29,6 +63,7 @@ import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> implements IVoucherService {
 
@@ -38,10 +73,54 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     @Resource
     private ISeckillVoucherService seckillVoucherService;
 
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @Resource
+    private SeckillSoldOutRegistry seckillSoldOutRegistry;
+
+    private static final DefaultRedisScript<List> BUYER_COUNT_SCRIPT;
+
+    static {
+        BUYER_COUNT_SCRIPT = new DefaultRedisScript<>();
+        BUYER_COUNT_SCRIPT.setLocation(new ClassPathResource("seckill_buyers.lua"));
+        BUYER_COUNT_SCRIPT.setResultType(List.class);
+    }
+
+    private static final DefaultRedisScript<List> STOCK_REPAIR_SCRIPT;
+
+    static {
+        STOCK_REPAIR_SCRIPT = new DefaultRedisScript<>();
+        STOCK_REPAIR_SCRIPT.setLocation(new ClassPathResource("seckill_stock_repair.lua"));
+        STOCK_REPAIR_SCRIPT.setResultType(List.class);
+    }
+
+    /**
+     * 预热和对账时每页处理的秒杀券数量
+     */
+    private static final int SECKILL_PAGE_SIZE = 500;
+
+    /**
+     * 重建购买用户集合时每页读取的订单数
+     */
+    private static final int BUYER_PAGE_SIZE = 5000;
+
+    /**
+     * 修复前最多检查的未落库订单消息数，超过时跳过修复
+     */
+    private static final int IN_FLIGHT_SCAN_LIMIT = 10000;
+
     @Override
     public Result queryVoucherOfShop(Long shopId) {
         // 查询优惠券信息
         List<Voucher> vouchers = getBaseMapper().queryVoucherOfShop(shopId);
+        // 分片库存的秒杀券，汇总Redis中各分片的剩余库存用于展示
+        for (Voucher voucher : vouchers) {
+            int stockShards = SeckillStockUtils.normalizeShards(voucher.getStockShards());
+            if (stockShards > 1) {
+                voucher.setStock(queryShardedStock(voucher.getId(), stockShards));
+            }
+        }
         // 返回结果
         return Result.ok(vouchers);
     }
@@ -55,10 +134,387 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         SeckillVoucher seckillVoucher = new SeckillVoucher();
         seckillVoucher.setVoucherId(voucher.getId());
         seckillVoucher.setStock(voucher.getStock());
+        int stockShards = SeckillStockUtils.normalizeShards(voucher.getStockShards());
+        seckillVoucher.setStockShards(stockShards);
+        int limitPerUser = SeckillDedupUtils.normalizeLimit(voucher.getLimitPerUser());
+        int limitDaily = voucher.getLimitDaily() == null ? 0 : Math.max(0, voucher.getLimitDaily());
+        seckillVoucher.setLimitPerUser(limitPerUser);
+        seckillVoucher.setLimitDaily(limitDaily);
+        seckillVoucher.setDedupMode(SeckillDedupUtils.resolveMode(voucher.getDedupMode(), limitPerUser, limitDaily));
         seckillVoucher.setBeginTime(voucher.getBeginTime());
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
+        // 预热秒杀券元数据的本地缓存
+        seckillVoucherService.cacheSeckillVoucher(seckillVoucher);
         // 保存秒杀库存到Redis中
-        stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucher.getId(), voucher.getStock().toString());
+        if (stockShards <= 1) {
+            stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucher.getId(), voucher.getStock().toString());
+            return;
+        }
+        // 库存分片，拆分到多个key中，分散单个key的扣减压力
+        String[] keys = SeckillStockUtils.stockKeys(voucher.getId(), stockShards);
+        int[] shares = SeckillStockUtils.splitStock(voucher.getStock(), stockShards);
+        Map<String, String> shardStock = new HashMap<>(stockShards);
+        for (int i = 0; i < stockShards; i++) {
+            shardStock.put(keys[i], String.valueOf(shares[i]));
+        }
+        stringRedisTemplate.opsForValue().multiSet(shardStock);
+    }
+
+    private int queryShardedStock(Long voucherId, int stockShards) {
+        List<String> values = stringRedisTemplate.opsForValue()
+                .multiGet(Arrays.asList(SeckillStockUtils.stockKeys(voucherId, stockShards)));
+        int stock = 0;
+        if (values == null) {
+            return stock;
+        }
+        for (String value : values) {
+            if (value != null) {
+                stock += Math.max(0, Integer.parseInt(value));
+            }
+        }
+        return stock;
+    }
+
+    @Override
+    public void preheatSeckillStock() {
+        int total = 0;
+        int loaded = 0;
+        long lastId = 0;
+        List<SeckillVoucher> page;
+        do {
+            // 1. 按id分页读取未结束的秒杀券
+            page = listActiveSeckillVouchers(lastId);
+            if (page.isEmpty()) {
+                break;
+            }
+            lastId = page.get(page.size() - 1).getVoucherId();
+            total += page.size();
+
+            // 2. 一次pipeline检查整页的库存key是否存在
+            List<SeckillVoucher> vouchers = page;
+            List<Object> exists = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (SeckillVoucher voucher : vouchers) {
+                    int stockShards = SeckillStockUtils.normalizeShards(voucher.getStockShards());
+                    conn.exists(SeckillStockUtils.stockKeys(voucher.getVoucherId(), stockShards)[0]);
+                }
+                return null;
+            });
+
+            // 3. 库存key不存在，说明Redis数据丢失，需要从数据库重建购买用户
+            List<SeckillVoucher> missing = new ArrayList<>();
+            List<Long> reloaded = new ArrayList<>();
+            for (int i = 0; i < vouchers.size(); i++) {
+                if (!BooleanUtil.isTrue((Boolean) exists.get(i))) {
+                    missing.add(vouchers.get(i));
+                    if (vouchers.get(i).getStock() > 0) {
+                        reloaded.add(vouchers.get(i).getVoucherId());
+                    }
+                }
+            }
+            loaded += missing.size();
+
+            // 4. 整页一起重建购买用户，库存在最后一页购买用户的同一个pipeline中写入，先写用户再写库存，避免重复下单
+            // SET NX 不会覆盖正在秒杀中的库存
+            rebuildBuyers(missing, conn -> {
+                for (SeckillVoucher voucher : vouchers) {
+                    int stockShards = SeckillStockUtils.normalizeShards(voucher.getStockShards());
+                    String[] keys = SeckillStockUtils.stockKeys(voucher.getVoucherId(), stockShards);
+                    int[] shares = SeckillStockUtils.splitStock(voucher.getStock(), stockShards);
+                    for (int i = 0; i < stockShards; i++) {
+                        conn.set(keys[i], String.valueOf(shares[i]), Expiration.persistent(), SetOption.ifAbsent());
+                    }
+                }
+            });
+
+            // 5. 重新加载了库存的券，清除数据丢失期间各节点标记的售罄
+            reloaded.forEach(seckillSoldOutRegistry::restock);
+        } while (page.size() == SECKILL_PAGE_SIZE);
+        log.info("秒杀库存预热完成，未结束的秒杀券 {} 张，重新加载 {} 张", total, loaded);
+    }
+
+    @Override
+    public List<SeckillStockDrift> reconcileSeckillStock(boolean repair) {
+        List<SeckillStockDrift> drifts = new ArrayList<>();
+        // 先于所有读取记录消息队列的位置，对账期间下单的订单都在这之后
+        String inFlightStartId = repair ? inFlightStartId() : null;
+        long lastId = 0;
+        List<SeckillVoucher> page;
+        do {
+            // 1. 按id分页读取未结束的秒杀券
+            page = listActiveSeckillVouchers(lastId);
+            if (page.isEmpty()) {
+                break;
+            }
+            lastId = page.get(page.size() - 1).getVoucherId();
+
+            // 2. 一次pipeline读取整页的Redis库存，一次Lua调用统计整页的购买用户数
+            List<SeckillVoucher> vouchers = page;
+            List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (SeckillVoucher voucher : vouchers) {
+                    int stockShards = SeckillStockUtils.normalizeShards(voucher.getStockShards());
+                    for (String key : SeckillStockUtils.stockKeys(voucher.getVoucherId(), stockShards)) {
+                        conn.get(key);
+                    }
+                }
+                return null;
+            });
+            List<?> buyerCounts = countBuyers(vouchers);
+
+            // 3. 一次GROUP BY查询整页的订单数
+            Map<Long, Long> orderCounts = countOrders(vouchers);
+
+            // 4. 对比，期望的Redis库存 = 数据库库存 - 已抢到但尚未落库的订单数
+            int index = 0;
+            int buyerIndex = 0;
+            List<SeckillStockDrift> pageDrifts = new ArrayList<>();
+            for (SeckillVoucher voucher : vouchers) {
+                int stockShards = SeckillStockUtils.normalizeShards(voucher.getStockShards());
+                long redisStock = 0;
+                boolean stockLoaded = false;
+                for (int i = 0; i < stockShards; i++) {
+                    Object value = results.get(index++);
+                    if (value != null) {
+                        stockLoaded = true;
+                        redisStock += Long.parseLong((String) value);
+                    }
+                }
+                long buyerCount = ((Number) buyerCounts.get(buyerIndex++)).longValue();
+                long orderCount = orderCounts.getOrDefault(voucher.getVoucherId(), 0L);
+                long expected = voucher.getStock() - Math.max(0, buyerCount - orderCount);
+                if (stockLoaded && redisStock == expected && buyerCount >= orderCount) {
+                    continue;
+                }
+                SeckillStockDrift drift = new SeckillStockDrift();
+                drift.setVoucherId(voucher.getVoucherId());
+                drift.setDbStock(voucher.getStock());
+                drift.setOrderCount(orderCount);
+                drift.setRedisStock(stockLoaded ? redisStock : null);
+                drift.setBuyerCount(buyerCount);
+                drift.setExpectedRedisStock(expected);
+                drift.setRepaired(false);
+                pageDrifts.add(drift);
+            }
+
+            // 5. 修复偏差
+            if (repair && !pageDrifts.isEmpty()) {
+                repairDrifts(vouchers, pageDrifts, inFlightStartId);
+            }
+            drifts.addAll(pageDrifts);
+        } while (page.size() == SECKILL_PAGE_SIZE);
+
+        for (SeckillStockDrift drift : drifts) {
+            log.warn("秒杀库存偏差：{}", drift);
+        }
+        return drifts;
+    }
+
+    private List<SeckillVoucher> listActiveSeckillVouchers(long lastId) {
+        return seckillVoucherService.query()
+                .gt("voucher_id", lastId)
+                .gt("end_time", LocalDateTime.now())
+                .orderByAsc("voucher_id")
+                .last("limit " + SECKILL_PAGE_SIZE)
+                .list();
+    }
+
+    private List<?> countBuyers(List<SeckillVoucher> vouchers) {
+        String[] args = new String[vouchers.size() * 2];
+        for (int i = 0; i < vouchers.size(); i++) {
+            SeckillVoucher voucher = vouchers.get(i);
+            args[2 * i] = voucher.getVoucherId().toString();
+            args[2 * i + 1] = String.valueOf(SeckillDedupUtils.normalizeMode(voucher.getDedupMode()));
+        }
+        List<?> counts = stringRedisTemplate.execute(BUYER_COUNT_SCRIPT, Collections.emptyList(), (Object[]) args);
+        return counts == null ? Collections.emptyList() : counts;
+    }
+
+    private Map<Long, Long> countOrders(List<SeckillVoucher> vouchers) {
+        List<Long> voucherIds = vouchers.stream().map(SeckillVoucher::getVoucherId).collect(Collectors.toList());
+        List<Map<String, Object>> rows = voucherOrderService.listMaps(new QueryWrapper<VoucherOrder>()
+                .select("voucher_id", "count(*) AS cnt")
+                .in("voucher_id", voucherIds)
+                .ne("status", ORDER_STATUS_CANCELLED)
+                .groupBy("voucher_id"));
+        Map<Long, Long> orderCounts = new HashMap<>(rows.size());
+        for (Map<String, Object> row : rows) {
+            orderCounts.put(((Number) row.get("voucher_id")).longValue(), ((Number) row.get("cnt")).longValue());
+        }
+        return orderCounts;
+    }
+
+    /**
+     * 记录对账开始时消息队列中最早未确认的订单消息，没有未确认的消息时为最后投递的消息
+     * 之后的消息在对账期间可能尚未落库，对应的优惠券本轮不修复
+     */
+    private String inFlightStartId() {
+        PendingMessagesSummary pending = stringRedisTemplate.opsForStream()
+                .pending(SECKILL_ORDER_STREAM_KEY, SECKILL_ORDER_GROUP);
+        if (pending != null && pending.getTotalPendingMessages() > 0) {
+            return pending.minMessageId();
+        }
+        return stringRedisTemplate.opsForStream().groups(SECKILL_ORDER_STREAM_KEY).stream()
+                .filter(group -> SECKILL_ORDER_GROUP.equals(group.groupName()))
+                .map(StreamInfo.XInfoGroup::lastDeliveredId)
+                .findFirst()
+                .orElse("0");
+    }
+
+    /**
+     * 查询从对账开始时起未确认或新加入队列的订单消息涉及的优惠券
+     * @param startId 对账开始时记录的消息id
+     * @return 优惠券id，消息过多无法逐条判断时返回null
+     */
+    private Set<Long> inFlightVoucherIds(String startId) {
+        List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().range(
+                SECKILL_ORDER_STREAM_KEY, Range.rightUnbounded(Range.Bound.inclusive(startId)),
+                RedisZSetCommands.Limit.limit().count(IN_FLIGHT_SCAN_LIMIT + 1));
+        if (records == null) {
+            return Collections.emptySet();
+        }
+        if (records.size() > IN_FLIGHT_SCAN_LIMIT) {
+            return null;
+        }
+        Set<Long> voucherIds = new HashSet<>();
+        for (MapRecord<String, Object, Object> record : records) {
+            Object voucherId = record.getValue().get("voucherId");
+            if (voucherId != null) {
+                voucherIds.add(Long.valueOf(voucherId.toString()));
+            }
+        }
+        return voucherIds;
+    }
+
+    private void repairDrifts(List<SeckillVoucher> vouchers, List<SeckillStockDrift> drifts, String inFlightStartId) {
+        // 1. 还有未落库订单的优惠券，订单数和购买用户数都在变化，本轮不修复
+        Set<Long> inFlight = inFlightVoucherIds(inFlightStartId);
+        if (inFlight == null) {
+            log.warn("订单消息积压超过 {} 条，跳过本页库存修复", IN_FLIGHT_SCAN_LIMIT);
+            return;
+        }
+        List<SeckillStockDrift> repairable = drifts.stream()
+                .filter(drift -> !inFlight.contains(drift.getVoucherId()))
+                .collect(Collectors.toList());
+        if (repairable.isEmpty()) {
+            return;
+        }
+        Map<Long, SeckillVoucher> voucherMap = vouchers.stream()
+                .collect(Collectors.toMap(SeckillVoucher::getVoucherId, v -> v));
+        // 2. 数据库订单比Redis购买用户还多，说明购买用户集合丢失，整页一起从数据库重建
+        List<SeckillVoucher> lostBuyers = new ArrayList<>();
+        for (SeckillStockDrift drift : repairable) {
+            if (drift.getBuyerCount() < drift.getOrderCount()) {
+                lostBuyers.add(voucherMap.get(drift.getVoucherId()));
+                drift.setExpectedRedisStock((long) drift.getDbStock());
+            }
+        }
+        if (!lostBuyers.isEmpty()) {
+            rebuildBuyers(lostBuyers, null);
+        }
+
+        // 3. 一次Lua调用修复整页，与读到的库存比较后按差值增减，读取后被并发扣减的券跳过
+        String[] args = new String[repairable.size() * 4];
+        for (int i = 0; i < repairable.size(); i++) {
+            SeckillStockDrift drift = repairable.get(i);
+            SeckillVoucher voucher = voucherMap.get(drift.getVoucherId());
+            long stock = Math.max(0, drift.getExpectedRedisStock());
+            args[4 * i] = drift.getVoucherId().toString();
+            args[4 * i + 1] = String.valueOf(SeckillStockUtils.normalizeShards(voucher.getStockShards()));
+            args[4 * i + 2] = String.valueOf(drift.getRedisStock() == null ? -1 : drift.getRedisStock());
+            args[4 * i + 3] = String.valueOf(stock);
+        }
+        List<?> deltas = stringRedisTemplate.execute(STOCK_REPAIR_SCRIPT, Collections.emptyList(), (Object[]) args);
+        if (deltas == null) {
+            return;
+        }
+        for (int i = 0; i < repairable.size(); i++) {
+            Object delta = deltas.get(i);
+            if (delta == null) {
+                continue;
+            }
+            SeckillStockDrift drift = repairable.get(i);
+            drift.setRepaired(true);
+            // 4. 库存增加了，清除所有节点的售罄标记
+            if (((Number) delta).longValue() > 0) {
+                seckillSoldOutRegistry.restock(drift.getVoucherId());
+            }
+        }
+    }
+
+    /**
+     * 从数据库订单重建一页秒杀券在Redis中的购买用户，按去重方式写入Set、Bitmap或购买数量
+     * 整页的订单按 (voucher_id, user_id) 分组后分页读取，走 idx_voucher_user 索引，每页一次查询和一次pipeline
+     * @param vouchers 需要重建的秒杀券
+     * @param lastPageWrites 不为null时，和最后一页购买用户在同一个pipeline中写入
+     */
+    private void rebuildBuyers(List<SeckillVoucher> vouchers, Consumer<StringRedisConnection> lastPageWrites) {
+        Map<Long, SeckillVoucher> voucherMap = vouchers.stream()
+                .collect(Collectors.toMap(SeckillVoucher::getVoucherId, v -> v));
+        LocalDate today = LocalDate.now();
+        String todayStart = today.atStartOfDay().toString().replace('T', ' ');
+        String day = SeckillDedupUtils.day(today);
+        long lastVoucherId = 0;
+        long lastUserId = 0;
+        boolean lastPage;
+        do {
+            // 1. 按 (voucher_id, user_id) 游标分页，统计每个用户的购买数量和当天的购买数量
+            List<Map<String, Object>> rows = voucherMap.isEmpty() ? Collections.emptyList()
+                    : voucherOrderService.listMaps(new QueryWrapper<VoucherOrder>()
+                    .select("voucher_id", "user_id", "count(*) AS cnt",
+                            "SUM(create_time >= '" + todayStart + "') AS daily")
+                    .in("voucher_id", voucherMap.keySet())
+                    .ne("status", ORDER_STATUS_CANCELLED)
+                    .apply("(voucher_id, user_id) > ({0}, {1})", lastVoucherId, lastUserId)
+                    .groupBy("voucher_id", "user_id")
+                    .orderByAsc("voucher_id", "user_id")
+                    .last("limit " + BUYER_PAGE_SIZE));
+            lastPage = rows.size() < BUYER_PAGE_SIZE;
+            if (!rows.isEmpty()) {
+                Map<String, Object> last = rows.get(rows.size() - 1);
+                lastVoucherId = ((Number) last.get("voucher_id")).longValue();
+                lastUserId = ((Number) last.get("user_id")).longValue();
+            }
+
+            // 2. 一次pipeline写入整页的购买用户，最后一页同时写入调用方的数据
+            boolean writeLast = lastPage && lastPageWrites != null;
+            if (rows.isEmpty() && !writeLast) {
+                break;
+            }
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (Map<String, Object> row : rows) {
+                    Long voucherId = ((Number) row.get("voucher_id")).longValue();
+                    SeckillVoucher voucher = voucherMap.get(voucherId);
+                    long userId = ((Number) row.get("user_id")).longValue();
+                    switch (SeckillDedupUtils.normalizeMode(voucher.getDedupMode())) {
+                        case SeckillDedupUtils.DEDUP_BITMAP:
+                            conn.setBit(SeckillDedupUtils.bitmapKey(voucherId), userId, true);
+                            break;
+                        case SeckillDedupUtils.DEDUP_CHUNKED_BITMAP:
+                            conn.setBit(SeckillDedupUtils.chunkKey(voucherId, userId), userId % SeckillDedupUtils.CHUNK_BITS, true);
+                            conn.sAdd(SeckillDedupUtils.chunkIndexKey(voucherId), String.valueOf(userId / SeckillDedupUtils.CHUNK_BITS));
+                            break;
+                        case SeckillDedupUtils.DEDUP_COUNTER:
+                            // 按用户计数，重建每个用户的购买数量，限制了每天购买数量时再重建当天的，当天的计数保留两天
+                            conn.hSet(SeckillDedupUtils.countKey(voucherId), String.valueOf(userId), row.get("cnt").toString());
+                            long daily = row.get("daily") == null ? 0 : ((Number) row.get("daily")).longValue();
+                            if (voucher.getLimitDaily() != null && voucher.getLimitDaily() > 0 && daily > 0) {
+                                String dailyKey = SeckillDedupUtils.dailyCountKey(voucherId, day);
+                                conn.hSet(dailyKey, String.valueOf(userId), String.valueOf(daily));
+                                conn.expire(dailyKey, TimeUnit.DAYS.toSeconds(2));
+                            }
+                            break;
+                        default:
+                            conn.sAdd(SECKILL_ORDER_KEY + voucherId, String.valueOf(userId));
+                    }
+                }
+                if (writeLast) {
+                    lastPageWrites.accept(conn);
+                }
+                return null;
+            });
+        } while (!lastPage);
     }
 }
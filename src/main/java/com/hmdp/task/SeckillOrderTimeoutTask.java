@@ -0,0 +1,33 @@
+package com.hmdp.task;
+
+import com.hmdp.service.IVoucherOrderService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+@Component
+@Slf4j
+public class SeckillOrderTimeoutTask {
+    @Autowired
+    private IVoucherOrderService voucherOrderService;
+
+    @Value("${hmdp.seckill.timeout-batch-size:500}")
+    private int timeoutBatchSize;
+
+    /**
+     * 定时取消超时未支付的订单，认领满一批说明还有积压，继续处理直到取完
+     */
+    @Scheduled(fixedDelayString = "${hmdp.seckill.timeout-check-interval-ms:1000}")
+    public void cancelTimeoutOrders() {
+        try {
+            int claimed;
+            do {
+                claimed = voucherOrderService.cancelTimeoutOrders();
+            } while (claimed >= timeoutBatchSize);
+        } catch (Exception e) {
+            log.error("取消超时订单失败", e);
+        }
+    }
+}
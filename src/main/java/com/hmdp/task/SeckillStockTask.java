@@ -0,0 +1,64 @@
+package com.hmdp.task;
+
+import com.hmdp.dto.SeckillStockDrift;
+import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.SeckillSoldOutRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+@Component
+@Slf4j
+public class SeckillStockTask {
+    @Autowired
+    private IVoucherService voucherService;
+
+    @Autowired
+    private SeckillSoldOutRegistry seckillSoldOutRegistry;
+
+    @Value("${hmdp.seckill.reconcile-repair:false}")
+    private boolean reconcileRepair;
+
+    /**
+     * 应用启动完成后预热秒杀库存
+     * Redis清空或主从切换后库存key丢失，Lua脚本会拒绝下单，需要尽快重新加载
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void preheatOnStartup() {
+        log.info("应用启动完成，开始预热秒杀库存...");
+        preheat();
+    }
+
+    /**
+     * 定时预热秒杀库存，只补充缺失的key，不会覆盖正在秒杀中的库存
+     */
+    @Scheduled(initialDelayString = "${hmdp.seckill.preheat-interval-ms:300000}",
+            fixedDelayString = "${hmdp.seckill.preheat-interval-ms:300000}")
+    public void preheat() {
+        try {
+            voucherService.preheatSeckillStock();
+        } catch (Exception e) {
+            log.error("秒杀库存预热失败", e);
+        }
+    }
+
+    /**
+     * 定时对账Redis库存与数据库订单
+     */
+    @Scheduled(initialDelayString = "${hmdp.seckill.reconcile-interval-ms:600000}",
+            fixedDelayString = "${hmdp.seckill.reconcile-interval-ms:600000}")
+    public void reconcile() {
+        try {
+            List<SeckillStockDrift> drifts = voucherService.reconcileSeckillStock(reconcileRepair);
+            log.info("秒杀库存对账完成，存在偏差 {} 张，自动修复：{}", drifts.size(), reconcileRepair);
+        } catch (Exception e) {
+            log.error("秒杀库存对账失败", e);
+        }
+    }
+}
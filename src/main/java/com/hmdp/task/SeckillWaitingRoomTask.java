@@ -0,0 +1,53 @@
+package com.hmdp.task;
+
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.utils.SeckillWaitingRoom;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.Set;
+
+@Component
+@Slf4j
+public class SeckillWaitingRoomTask {
+    @Autowired
+    private SeckillWaitingRoom seckillWaitingRoom;
+
+    @Autowired
+    private ISeckillVoucherService seckillVoucherService;
+
+    /**
+     * 定时放行排队的用户，放行速率由Lua脚本按Redis时间控制，多个节点同时执行也不会放行过多
+     * 秒杀开始之前只排队不放行，避免凭证在开始前过期
+     */
+    @Scheduled(fixedDelayString = "${hmdp.seckill.waiting-room.release-interval-ms:100}")
+    public void release() {
+        if (!seckillWaitingRoom.isEnabled()) {
+            return;
+        }
+        try {
+            Set<String> voucherIds = seckillWaitingRoom.activeVoucherIds();
+            if (voucherIds == null) {
+                return;
+            }
+            LocalDateTime now = LocalDateTime.now();
+            for (String id : voucherIds) {
+                Long voucherId = Long.valueOf(id);
+                SeckillVoucher voucher = seckillVoucherService.queryCachedById(voucherId);
+                if (voucher == null || voucher.getBeginTime().isAfter(now)) {
+                    continue;
+                }
+                long released = seckillWaitingRoom.release(voucherId);
+                if (released > 0) {
+                    log.debug("秒杀排队放行，voucherId：{}，人数：{}", voucherId, released);
+                }
+            }
+        } catch (Exception e) {
+            log.error("秒杀排队放行失败", e);
+        }
+    }
+}
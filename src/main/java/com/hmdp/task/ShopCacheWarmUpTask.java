@@ -0,0 +1,28 @@
+package com.hmdp.task;
+
+import com.hmdp.service.IShopService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+@Component
+@Slf4j
+public class ShopCacheWarmUpTask {
+    @Autowired
+    private IShopService shopService;
+
+    /**
+     * 应用启动完成后预热热点店铺缓存
+     * 热点店铺使用逻辑过期缓存，预热后查询不会因缓存未命中而等待互斥锁
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void preloadHotShopsOnStartup() {
+        try {
+            shopService.preloadHotShops();
+        } catch (Exception e) {
+            log.error("热点店铺缓存预热失败", e);
+        }
+    }
+}
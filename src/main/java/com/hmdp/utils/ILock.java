@@ -1,15 +1,25 @@
 package com.hmdp.utils;
 
+import java.util.concurrent.TimeUnit;
+
 public interface ILock {
     /**
-     * 尝试获取锁
+     * 尝试获取锁，不等待，锁到期后自动释放，不续期
      * @param timeoutSec 超时时间，单位秒
      * @return true 成功 false 失败
      */
     boolean tryLock(long timeoutSec);
 
     /**
-     * 释放锁
+     * 尝试获取锁，被占用时等待锁释放通知，获取成功后由看门狗续期直到释放
+     * @param waitTime 最长等待时间
+     * @param unit 时间单位
+     * @return true 成功 false 等待超时
+     */
+    boolean tryLock(long waitTime, TimeUnit unit);
+
+    /**
+     * 释放锁，重入多次时需释放相同次数
      */
     void unlock();
 }
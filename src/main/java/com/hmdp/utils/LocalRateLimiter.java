@@ -0,0 +1,42 @@
+package com.hmdp.utils;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.RateLimiter;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 节点本地限流器，基于Guava RateLimiter（令牌桶），每个key一个限流器，不访问Redis
+ * 上限按单个节点计算，集群的总上限为 节点数 * permits，用于保护单张热门秒杀券这类所有请求都落在同一个key上的场景
+ */
+@Component
+public class LocalRateLimiter {
+
+    /**
+     * 限流key -> 限流器，一段时间没有请求的key自动清除
+     */
+    private final Cache<String, RateLimiter> limiters = CacheBuilder.newBuilder()
+            .maximumSize(100_000)
+            .expireAfterAccess(10, TimeUnit.MINUTES)
+            .build();
+
+    /**
+     * 尝试获取一次访问许可
+     * @param key 限流key
+     * @param permits 每个周期允许的请求数
+     * @param periodMs 周期毫秒数
+     * @return 0 允许访问；大于0 被限流，还需等待的毫秒数
+     */
+    public long tryAcquire(String key, long permits, long periodMs) {
+        RateLimiter limiter;
+        try {
+            limiter = limiters.get(key, () -> RateLimiter.create(permits * 1000.0 / periodMs));
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+        return limiter.tryAcquire() ? 0 : Math.max(1, periodMs / permits);
+    }
+}
@@ -0,0 +1,149 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.LockHolderDTO;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * 锁竞争监控，所有锁按分类（如 lock:shop、seckill:user）记录获取次数、失败次数、等待时间、持有时间和当前持有数
+ * 指标通过 /actuator/metrics/lock.* 查看，当前节点持有的锁通过 /actuator/locks 查看，按持有时间倒序
+ */
+@Component
+@Endpoint(id = "locks")
+public class LockMonitor {
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    /**
+     * 每个分类的指标
+     */
+    private final Map<String, LockMeters> meters = new ConcurrentHashMap<>();
+
+    /**
+     * 本节点当前持有的锁，key为锁的key
+     */
+    private final Map<String, Holding> holdings = new ConcurrentHashMap<>();
+
+    /**
+     * 记录一次获取锁
+     * @param prefix 锁的分类
+     * @param waitNanos 等待时间
+     * @param acquired 是否获取成功
+     */
+    public void recordAcquire(String prefix, long waitNanos, boolean acquired) {
+        LockMeters m = meters(prefix);
+        m.attempts.increment();
+        if (!acquired) {
+            m.failures.increment();
+        }
+        m.waitTimer.record(waitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 开始持有锁，重入时不重复调用
+     * @param prefix 锁的分类
+     * @param key 锁的key
+     * @param owner 持有者标识
+     */
+    public void onHeld(String prefix, String key, String owner) {
+        Holding holding = new Holding(prefix, owner, Thread.currentThread().getName());
+        meters(prefix).holders.incrementAndGet();
+        // 之前的持有者锁已过期未释放，结束它的持有记录
+        finish(holdings.put(key, holding));
+    }
+
+    /**
+     * 释放锁，记录持有时间
+     * @param key 锁的key
+     */
+    public void onReleased(String key) {
+        finish(holdings.remove(key));
+    }
+
+    /**
+     * 当前节点持有的锁，持有时间最长的在前
+     */
+    @ReadOperation
+    public List<LockHolderDTO> holders() {
+        long now = System.nanoTime();
+        return holdings.entrySet().stream()
+                .map(e -> new LockHolderDTO(e.getKey(), e.getValue().prefix, e.getValue().owner, e.getValue().thread,
+                        TimeUnit.NANOSECONDS.toMillis(now - e.getValue().since)))
+                .sorted(Comparator.comparing(LockHolderDTO::getHeldMs).reversed())
+                .collect(Collectors.toList());
+    }
+
+    private void finish(Holding holding) {
+        if (holding == null) {
+            return;
+        }
+        LockMeters m = meters(holding.prefix);
+        m.holders.decrementAndGet();
+        m.holdTimer.record(System.nanoTime() - holding.since, TimeUnit.NANOSECONDS);
+    }
+
+    private LockMeters meters(String prefix) {
+        return meters.computeIfAbsent(prefix, LockMeters::new);
+    }
+
+    private class LockMeters {
+        private final Counter attempts;
+        private final Counter failures;
+        private final Timer waitTimer;
+        private final Timer holdTimer;
+        private final AtomicInteger holders = new AtomicInteger();
+
+        private LockMeters(String prefix) {
+            attempts = Counter.builder("lock.acquire.attempts")
+                    .description("获取锁的次数")
+                    .tag("prefix", prefix)
+                    .register(meterRegistry);
+            failures = Counter.builder("lock.acquire.failures")
+                    .description("获取锁失败（超时）的次数")
+                    .tag("prefix", prefix)
+                    .register(meterRegistry);
+            waitTimer = Timer.builder("lock.wait")
+                    .description("获取锁的等待时间")
+                    .tag("prefix", prefix)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry);
+            holdTimer = Timer.builder("lock.hold")
+                    .description("锁的持有时间")
+                    .tag("prefix", prefix)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry);
+            Gauge.builder("lock.holders", holders, AtomicInteger::get)
+                    .description("本节点当前持有的锁数量")
+                    .tag("prefix", prefix)
+                    .register(meterRegistry);
+        }
+    }
+
+    private static class Holding {
+        private final String prefix;
+        private final String owner;
+        private final String thread;
+        private final long since = System.nanoTime();
+
+        private Holding(String prefix, String owner, String thread) {
+            this.prefix = prefix;
+            this.owner = owner;
+            this.thread = thread;
+        }
+    }
+}
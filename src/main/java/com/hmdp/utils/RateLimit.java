@@ -0,0 +1,86 @@
+package com.hmdp.utils;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Repeatable;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 接口限流规则，由 {@link RateLimitInterceptor} 在进入controller之前校验
+ * 同一个接口可以声明多条规则，一次脚本调用同时校验，任意一条不通过即拒绝，且都不扣减
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Repeatable(RateLimit.List.class)
+public @interface RateLimit {
+
+    /**
+     * 限流维度
+     */
+    Dimension dimension();
+
+    /**
+     * 维度为路径变量或请求参数时，对应的变量名
+     */
+    String name() default "";
+
+    /**
+     * 限流算法
+     */
+    Algorithm algorithm() default Algorithm.TOKEN_BUCKET;
+
+    /**
+     * 每个周期允许的请求数，令牌桶算法下同时也是桶容量
+     */
+    long permits();
+
+    /**
+     * 周期
+     */
+    long period() default 1;
+
+    TimeUnit timeUnit() default TimeUnit.SECONDS;
+
+    /**
+     * 是否只在节点本地限流，true 时由 {@link LocalRateLimiter} 校验，不访问Redis，只支持令牌桶，上限按单个节点计算
+     */
+    boolean local() default false;
+
+    enum Dimension {
+        /**
+         * 按登录用户，未登录时按IP
+         */
+        USER,
+        /**
+         * 按客户端IP
+         */
+        IP,
+        /**
+         * 按路径变量，如 /voucher-order/seckill/{id} 中的优惠券id
+         */
+        PATH_VARIABLE,
+        /**
+         * 按请求参数，如发送验证码的手机号
+         */
+        PARAMETER
+    }
+
+    enum Algorithm {
+        /**
+         * 令牌桶，允许一定的突发流量
+         */
+        TOKEN_BUCKET,
+        /**
+         * 滑动窗口，任意一个周期内的请求数都不超过上限
+         */
+        SLIDING_WINDOW
+    }
+
+    @Target(ElementType.METHOD)
+    @Retention(RetentionPolicy.RUNTIME)
+    @interface List {
+        RateLimit[] value();
+    }
+}
@@ -0,0 +1,96 @@
+package com.hmdp.utils;
+
+import cn.hutool.extra.servlet.ServletUtil;
+import com.hmdp.dto.UserDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static com.hmdp.utils.RedisConstants.RATE_LIMIT_KEY;
+
+/**
+ * 根据controller方法上的 {@link RateLimit} 规则限流
+ * 限流key：limit:{类名}.{方法名}:{维度}:{维度值}
+ */
+@Slf4j
+@Component
+public class RateLimitInterceptor implements HandlerInterceptor {
+
+    @Resource
+    private RedisRateLimiter redisRateLimiter;
+
+    @Resource
+    private LocalRateLimiter localRateLimiter;
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        // 1. 只处理声明了限流规则的controller方法
+        if (!(handler instanceof HandlerMethod)) {
+            return true;
+        }
+        Method method = ((HandlerMethod) handler).getMethod();
+        RateLimit[] rules = method.getAnnotationsByType(RateLimit.class);
+        if (rules.length == 0) {
+            return true;
+        }
+
+        // 2. 解析每条规则的限流key，本地规则先在内存中校验，其余规则一次脚本调用完成校验
+        String prefix = RATE_LIMIT_KEY + method.getDeclaringClass().getSimpleName() + "." + method.getName() + ":";
+        List<RedisRateLimiter.Rule> limits = new ArrayList<>(rules.length);
+        long wait = 0;
+        for (RateLimit rule : rules) {
+            String value = resolveDimension(rule, request);
+            if (value == null) {
+                continue;
+            }
+            String key = prefix + rule.dimension().name().toLowerCase() + ":" + value;
+            long periodMs = rule.timeUnit().toMillis(rule.period());
+            if (rule.local()) {
+                wait = Math.max(wait, localRateLimiter.tryAcquire(key, rule.permits(), periodMs));
+            } else {
+                limits.add(new RedisRateLimiter.Rule(key, rule.algorithm(), rule.permits(), periodMs));
+            }
+        }
+        if (wait == 0 && !limits.isEmpty()) {
+            wait = redisRateLimiter.tryAcquire(limits);
+        }
+        if (wait > 0) {
+            // 3. 被限流，返回429
+            log.debug("请求被限流，uri：{}，需等待{}ms", request.getRequestURI(), wait);
+            response.setStatus(429);
+            response.setHeader("Retry-After", String.valueOf((wait + 999) / 1000));
+            response.setContentType("application/json;charset=UTF-8");
+            response.getWriter().write("{\"success\":false,\"errorMsg\":\"请求过于频繁，请稍后再试\"}");
+            return false;
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private String resolveDimension(RateLimit rule, HttpServletRequest request) {
+        switch (rule.dimension()) {
+            case USER:
+                UserDTO user = UserHolder.getUser();
+                return user != null ? user.getId().toString() : ServletUtil.getClientIP(request);
+            case IP:
+                return ServletUtil.getClientIP(request);
+            case PATH_VARIABLE:
+                Map<String, String> variables = (Map<String, String>) request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+                return variables == null ? null : variables.get(rule.name());
+            case PARAMETER:
+                return request.getParameter(rule.name());
+            default:
+                return null;
+        }
+    }
+}
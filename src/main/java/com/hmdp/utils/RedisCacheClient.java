@@ -1,9 +1,264 @@
 package com.hmdp.utils;
 
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static com.hmdp.utils.RedisConstants.CACHE_LOCK_WAIT;
+import static com.hmdp.utils.RedisConstants.CACHE_NULL_TTL;
+
+/**
+ * 通用缓存客户端，缓存key为 keyPrefix + id，value为JSON
+ * 提供三种查询方式：
+ * 1. 缓存空值解决缓存穿透：queryWithPassThrough
+ * 2. 互斥锁重建解决缓存击穿：queryWithMutex
+ * 3. 逻辑过期解决缓存击穿：queryWithLogicalExpire，key不设置TTL，过期后返回旧数据并异步重建，读请求不阻塞
+ * 指标：cache.requests（按result区分hit、stale、null、miss）、cache.load（查数据库耗时）、
+ * cache.rebuild（异步重建耗时）、cache.rebuild.rejected（重建线程池已满），均以keyPrefix为cache标签
+ */
 @Slf4j
 @Component
 public class RedisCacheClient {
+
+    /**
+     * 逻辑过期的缓存重建线程池，有界队列，队列满时放弃重建，继续返回旧数据
+     */
+    private static final ExecutorService CACHE_REBUILD_EXECUTOR = new ThreadPoolExecutor(2, 4,
+            60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(256),
+            new ThreadFactoryBuilder().setNameFormat("cache-rebuild-%d").setDaemon(true).build());
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisLockClient redisLockClient;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @Resource
+    private TtlJitter ttlJitter;
+
+    /**
+     * 本节点正在重建的key，同一个key只提交一次重建任务
+     */
+    private final Set<String> rebuilding = ConcurrentHashMap.newKeySet();
+
+    @PreDestroy
+    private void destroy() {
+        CACHE_REBUILD_EXECUTOR.shutdown();
+    }
+
+    /**
+     * 写入缓存，TTL随机延长，避免同时写入的key同时过期
+     */
+    public void set(String key, Object value, Long time, TimeUnit unit) {
+        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value), ttlJitter.jitter(key, time, unit), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 写入逻辑过期的缓存，Redis中不设置TTL，逻辑过期时间随机延长，避免同时重建
+     */
+    public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit) {
+        RedisData redisData = new RedisData();
+        redisData.setData(value);
+        redisData.setExpireTime(LocalDateTime.now().plus(ttlJitter.jitter(key, time, unit), ChronoUnit.MILLIS));
+        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+    }
+
+    /**
+     * 查询缓存，数据库中不存在的数据缓存空值，防止缓存穿透
+     * @param keyPrefix 缓存key前缀
+     * @param id 数据id
+     * @param type 数据类型
+     * @param dbFallback 查数据库
+     * @param time 缓存有效期
+     * @param unit 时间单位
+     * @return 数据，不存在时返回null
+     */
+    public <R, ID> R queryWithPassThrough(String keyPrefix, ID id, Class<R> type,
+                                          Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        String key = keyPrefix + id;
+        // 1. 从Redis查询缓存
+        String json = stringRedisTemplate.opsForValue().get(key);
+        // 2. 存在，直接返回
+        if (StrUtil.isNotBlank(json)) {
+            record(keyPrefix, "hit");
+            return JSONUtil.toBean(json, type);
+        }
+        // 3. 命中空值，数据不存在
+        if (json != null) {
+            record(keyPrefix, "null");
+            return null;
+        }
+        // 4. 不存在，查数据库并写入缓存
+        record(keyPrefix, "miss");
+        return load(keyPrefix, id, dbFallback, time, unit, false);
+    }
+
+    /**
+     * 查询缓存，未命中时获取互斥锁，只有一个线程查数据库重建缓存，其它线程等待锁释放后读缓存
+     * @return 数据，不存在时返回null
+     * @throws IllegalStateException 等待互斥锁超时
+     */
+    public <R, ID> R queryWithMutex(String keyPrefix, ID id, Class<R> type,
+                                    Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        String key = keyPrefix + id;
+        // 1. 从Redis查询缓存
+        String json = stringRedisTemplate.opsForValue().get(key);
+        // 2. 存在，直接返回
+        if (StrUtil.isNotBlank(json)) {
+            record(keyPrefix, "hit");
+            return JSONUtil.toBean(json, type);
+        }
+        // 3. 命中空值，数据不存在
+        if (json != null) {
+            record(keyPrefix, "null");
+            return null;
+        }
+        // 4. 不存在，互斥查数据库并写入缓存
+        record(keyPrefix, "miss");
+        return loadWithMutex(key, j -> JSONUtil.toBean(j, type), () -> load(keyPrefix, id, dbFallback, time, unit, false));
+    }
+
+    /**
+     * 查询逻辑过期的缓存，Redis中不过期，逻辑过期时立即返回旧数据，由一个线程在重建线程池中异步重建
+     * 首次查询或缓存被删除后互斥加载一次
+     * @return 数据，不存在时返回null
+     * @throws IllegalStateException 首次加载时等待互斥锁超时
+     */
+    public <R, ID> R queryWithLogicalExpire(String keyPrefix, ID id, Class<R> type,
+                                            Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        String key = keyPrefix + id;
+        // 1. 从Redis查询缓存
+        String json = stringRedisTemplate.opsForValue().get(key);
+        // 2. 命中空值，数据不存在
+        if (json != null && StrUtil.isBlank(json)) {
+            record(keyPrefix, "null");
+            return null;
+        }
+        // 3. 未命中，互斥加载并写入逻辑过期的缓存
+        if (json == null) {
+            record(keyPrefix, "miss");
+            return loadWithMutex(key, j -> JSONUtil.toBean((JSONObject) JSONUtil.toBean(j, RedisData.class).getData(), type),
+                    () -> load(keyPrefix, id, dbFallback, time, unit, true));
+        }
+        // 4. 命中，反序列化
+        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
+        R r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
+        // 5. 未过期，直接返回
+        if (redisData.getExpireTime().isAfter(LocalDateTime.now())) {
+            record(keyPrefix, "hit");
+            return r;
+        }
+        // 6. 已过期，提交重建任务，返回旧数据
+        record(keyPrefix, "stale");
+        if (rebuilding.add(key)) {
+            try {
+                CACHE_REBUILD_EXECUTOR.execute(() -> rebuild(keyPrefix, id, dbFallback, time, unit));
+            } catch (RejectedExecutionException e) {
+                // 重建线程池已满，下次读到过期数据时再提交
+                rebuilding.remove(key);
+                meterRegistry.counter("cache.rebuild.rejected", "cache", keyPrefix).increment();
+            }
+        }
+        return r;
+    }
+
+    /**
+     * 重建逻辑过期的缓存，获取互斥锁失败说明其它节点正在重建
+     * 锁由重建线程获取和释放，锁的持有者标识与线程绑定
+     */
+    private <R, ID> void rebuild(String keyPrefix, ID id, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        String key = keyPrefix + id;
+        ILock lock = redisLockClient.getLock(key);
+        try {
+            if (!lock.tryLock(0, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+            try {
+                // 再次检查是否过期，其它节点可能刚重建完
+                String json = stringRedisTemplate.opsForValue().get(key);
+                if (StrUtil.isNotBlank(json)
+                        && JSONUtil.toBean(json, RedisData.class).getExpireTime().isAfter(LocalDateTime.now())) {
+                    return;
+                }
+                long begin = System.nanoTime();
+                load(keyPrefix, id, dbFallback, time, unit, true);
+                meterRegistry.timer("cache.rebuild", "cache", keyPrefix).record(System.nanoTime() - begin, TimeUnit.NANOSECONDS);
+            } finally {
+                lock.unlock();
+            }
+        } catch (Exception e) {
+            log.error("重建缓存失败：{}", key, e);
+        } finally {
+            rebuilding.remove(key);
+        }
+    }
+
+    /**
+     * 获取互斥锁后再次检查缓存，仍未命中才加载，锁被占用时等待释放通知
+     * @param parser 解析缓存
+     * @param loader 查数据库并写入缓存
+     */
+    private <R> R loadWithMutex(String key, Function<String, R> parser, Supplier<R> loader) {
+        ILock lock = redisLockClient.getLock(key);
+        if (!lock.tryLock(CACHE_LOCK_WAIT, TimeUnit.MILLISECONDS)) {
+            throw new IllegalStateException("获取互斥锁失败！");
+        }
+        try {
+            // 等待期间其它线程可能已经重建
+            String json = stringRedisTemplate.opsForValue().get(key);
+            if (json != null) {
+                return StrUtil.isBlank(json) ? null : parser.apply(json);
+            }
+            return loader.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 查数据库并写入缓存，不存在时缓存空值
+     * @param logical 是否写入逻辑过期的缓存
+     */
+    private <R, ID> R load(String keyPrefix, ID id, Function<ID, R> dbFallback, Long time, TimeUnit unit, boolean logical) {
+        String key = keyPrefix + id;
+        long begin = System.nanoTime();
+        R r = dbFallback.apply(id);
+        meterRegistry.timer("cache.load", "cache", keyPrefix).record(System.nanoTime() - begin, TimeUnit.NANOSECONDS);
+        if (r == null) {
+            stringRedisTemplate.opsForValue().set(key, "", ttlJitter.jitter(key, CACHE_NULL_TTL, TimeUnit.MINUTES), TimeUnit.MILLISECONDS);
+            return null;
+        }
+        if (logical) {
+            setWithLogicalExpire(key, r, time, unit);
+        } else {
+            set(key, r, time, unit);
+        }
+        return r;
+    }
+
+    private void record(String keyPrefix, String result) {
+        meterRegistry.counter("cache.requests", "cache", keyPrefix, "result", result).increment();
+    }
 }
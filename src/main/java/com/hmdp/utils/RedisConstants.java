@@ -7,16 +7,36 @@ public class RedisConstants {
     public static final Long LOGIN_USER_TTL = 30L;
 
     public static final Long CACHE_NULL_TTL = 2L;
+    public static final Long CACHE_LOCK_WAIT = 250L;
 
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
+    public static final String CACHE_SHOP_HOT_KEY = "cache:shop:hot:";
+    public static final String CACHE_SHOP_EVICT_CHANNEL = "cache:shop:evict";
 
     public static final String BLOOM_SHOP_KEY = "bloom:shop:";
 
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
+    public static final String LOCK_UNLOCK_CHANNEL = "lock:unlock";
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    public static final String SECKILL_ORDER_STREAM_KEY = "stream.orders";
+    public static final String SECKILL_ORDER_GROUP = "g1";
+    public static final String SECKILL_SOLD_OUT_CHANNEL = "seckill:soldout";
+    public static final String SECKILL_VOUCHER_EVICT_CHANNEL = "seckill:voucher:evict";
+    public static final String SECKILL_RESULT_KEY = "seckill:result:";
+    public static final String SECKILL_RESULT_CHANNEL = "seckill:result";
+    public static final String SECKILL_RESTOCK_CHANNEL = "seckill:restock";
+    public static final String SECKILL_ORDER_TIMEOUT_KEY = "seckill:order:timeout";
+    public static final String SECKILL_QUEUE_KEY = "seckill:queue:";
+    public static final String SECKILL_QUEUE_SEQ_KEY = "seckill:queue:seq:";
+    public static final String SECKILL_QUEUE_RELEASED_KEY = "seckill:queue:released:";
+    public static final String SECKILL_QUEUE_ACTIVE_KEY = "seckill:queue:active";
+    public static final Long SECKILL_QUEUE_TTL = 86400L;
+    public static final String SECKILL_PASS_KEY = "seckill:pass:";
+    public static final String RATE_LIMIT_KEY = "limit:";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
     public static final String FEED_KEY = "feed:";
     public static final String SHOP_GEO_KEY = "shop:geo:";
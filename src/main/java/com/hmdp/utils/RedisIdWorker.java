@@ -1,13 +1,27 @@
 package com.hmdp.utils;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
+@Slf4j
 @Component
 public class RedisIdWorker {
     /**
@@ -17,10 +31,58 @@ public class RedisIdWorker {
 
     private static final int COUNT_BIT = 32;
 
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
+
+    /**
+     * 号段预取的后台线程，号段剩余不足时异步向Redis申请下一个号段
+     */
+    private static final ExecutorService SEGMENT_LOADER = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("id-segment-loader").setDaemon(true).build());
+
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    /**
+     * 号段大小，大于1时一次 INCRBY 申请一段序列号在本地发放，小于等于1时每个id一次 INCR
+     */
+    @Value("${hmdp.id-worker.segment-size:0}")
+    private int segmentSize;
+
+    /**
+     * id生成策略，redis：Redis自增序列号（可配合号段模式）；snowflake：本地雪花算法，不访问Redis
+     */
+    @Value("${hmdp.id-worker.strategy:redis}")
+    private String strategy;
+
+    private SnowflakeIdWorker snowflakeIdWorker;
+
+    /**
+     * 当天日期的缓存，同一天内不重复格式化
+     */
+    private volatile DateKey dateKey = new DateKey(-1, null);
+
+    private final Map<String, SegmentBuffer> segmentBuffers = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        if ("snowflake".equalsIgnoreCase(strategy)) {
+            snowflakeIdWorker = new SnowflakeIdWorker(stringRedisTemplate);
+        }
+    }
+
+    @PreDestroy
+    private void destroy() {
+        if (snowflakeIdWorker != null) {
+            snowflakeIdWorker.shutdown();
+        }
+    }
+
     public long nextId(String keyPrefix) {
+        // 0. 雪花算法策略，完全在本地生成
+        if (snowflakeIdWorker != null) {
+            return snowflakeIdWorker.nextId();
+        }
+
         // 1. 生成时间戳
         LocalDateTime now = LocalDateTime.now();
         long nowSecond = now.toEpochSecond(ZoneOffset.UTC);
@@ -28,11 +90,132 @@ public class RedisIdWorker {
 
         // 2. 生成序列号
         // 2.1. 获取当前日期，精确到天
-        String date = now.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
-        // 2.2. 自增
-        long count = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date);
+        String date = currentDate(now);
+        // 2.2. 自增，号段模式下从本地号段中获取
+        long count = segmentSize > 1
+                ? segmentBuffers.computeIfAbsent(keyPrefix, SegmentBuffer::new).next(date)
+                : stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date);
 
         // 3. 返回ID
         return timestamp << COUNT_BIT | count;
     }
+
+    /**
+     * 从id中解析生成时间，精度为秒（雪花算法为毫秒）
+     * @param id nextId生成的id
+     * @return 毫秒时间戳
+     */
+    public long timestampMillis(long id) {
+        if (snowflakeIdWorker != null) {
+            return SnowflakeIdWorker.timestampMillis(id);
+        }
+        // 时间戳部分是本地时间按UTC换算的秒数，按本地时区换算回来
+        LocalDateTime time = LocalDateTime.ofEpochSecond((id >>> COUNT_BIT) + BEGIN_TIMESTAMP, 0, ZoneOffset.UTC);
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private String currentDate(LocalDateTime now) {
+        long epochDay = now.toLocalDate().toEpochDay();
+        DateKey key = dateKey;
+        if (key.epochDay != epochDay) {
+            key = new DateKey(epochDay, now.format(DATE_FORMATTER));
+            dateKey = key;
+        }
+        return key.date;
+    }
+
+    private static class DateKey {
+        private final long epochDay;
+        private final String date;
+
+        private DateKey(long epochDay, String date) {
+            this.epochDay = epochDay;
+            this.date = date;
+        }
+    }
+
+    /**
+     * 号段，[cursor, end] 内的序列号由本地无锁发放
+     */
+    private static class Segment {
+        private final String date;
+        private final AtomicLong cursor;
+        private final long end;
+
+        private Segment(String date, long begin, long end) {
+            this.date = date;
+            this.cursor = new AtomicLong(begin);
+            this.end = end;
+        }
+    }
+
+    /**
+     * 某个业务前缀的号段缓冲，持有当前号段和预取的下一个号段
+     */
+    private class SegmentBuffer {
+        private final String keyPrefix;
+        private volatile Segment current;
+        private final AtomicReference<Segment> prefetched = new AtomicReference<>();
+        private final AtomicBoolean loading = new AtomicBoolean(false);
+
+        private SegmentBuffer(String keyPrefix) {
+            this.keyPrefix = keyPrefix;
+        }
+
+        private long next(String date) {
+            while (true) {
+                Segment segment = current;
+                if (segment != null && segment.date.equals(date)) {
+                    long count = segment.cursor.getAndIncrement();
+                    if (count <= segment.end) {
+                        // 剩余不足20%时异步预取下一个号段
+                        if (segment.end - count == segmentSize / 5) {
+                            prefetch(date);
+                        }
+                        return count;
+                    }
+                }
+                switchSegment(segment, date);
+            }
+        }
+
+        private synchronized void switchSegment(Segment old, String date) {
+            // 其它线程已经切换过了
+            if (current != old) {
+                return;
+            }
+            Segment segment = prefetched.getAndSet(null);
+            if (segment == null || !segment.date.equals(date)) {
+                // 没有预取到或已跨天，同步申请
+                segment = allocate(date);
+            }
+            current = segment;
+        }
+
+        private void prefetch(String date) {
+            if (!loading.compareAndSet(false, true)) {
+                return;
+            }
+            SEGMENT_LOADER.submit(() -> {
+                try {
+                    prefetched.set(allocate(date));
+                } catch (Exception e) {
+                    log.error("预取id号段失败，keyPrefix：{}", keyPrefix, e);
+                } finally {
+                    loading.set(false);
+                }
+            });
+        }
+
+        /**
+         * INCRBY icr:{keyPrefix}:{date} segmentSize，得到 [end - segmentSize + 1, end]
+         */
+        private Segment allocate(String date) {
+            Long end = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date, segmentSize);
+            if (end == null) {
+                throw new IllegalStateException("申请id号段失败，keyPrefix：" + keyPrefix);
+            }
+            return new Segment(date, end - segmentSize + 1, end);
+        }
+    }
 }
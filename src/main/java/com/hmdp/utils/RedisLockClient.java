@@ -0,0 +1,230 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.LOCK_UNLOCK_CHANNEL;
+
+/**
+ * Redis分布式锁客户端，创建SimpleRedisLock，并负责看门狗续期和锁释放通知
+ * 看门狗：等待获取的锁每隔有效期的1/3续期一次，直到释放，持有锁的节点宕机后锁在有效期后自动过期
+ * 释放通知：unlock.lua 释放锁时向 lock:unlock 发布锁的key，唤醒本节点等待该锁的线程，代替轮询
+ */
+@Slf4j
+@Component
+public class RedisLockClient implements MessageListener {
+
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT;
+
+    static {
+        RENEW_SCRIPT = new DefaultRedisScript<>();
+        RENEW_SCRIPT.setLocation(new ClassPathResource("lock_renew.lua"));
+        RENEW_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Resource
+    private LockMonitor lockMonitor;
+
+    /**
+     * 看门狗续期的锁的有效期，单位毫秒
+     */
+    @Value("${hmdp.lock.lease-ms:30000}")
+    private long leaseMs;
+
+    /**
+     * 节点标识，与线程id组成锁的持有者标识
+     */
+    private final String clientId = UUID.randomUUID().toString(true);
+
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("redis-lock-watchdog").setDaemon(true).build());
+
+    /**
+     * 本节点持有的锁，key为锁的key
+     */
+    private final Map<String, Hold> holds = new ConcurrentHashMap<>();
+
+    /**
+     * 本节点正在等待的锁，key为锁的key
+     */
+    private final Map<String, Waiters> waiters = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(LOCK_UNLOCK_CHANNEL));
+    }
+
+    @PreDestroy
+    private void destroy() {
+        watchdog.shutdownNow();
+    }
+
+    /**
+     * 获取锁对象，锁的key为 lock:{name}
+     * @param name 锁的名称
+     */
+    public ILock getLock(String name) {
+        return new SimpleRedisLock(name, stringRedisTemplate, this);
+    }
+
+    public long getLeaseMs() {
+        return leaseMs;
+    }
+
+    /**
+     * 当前线程的持有者标识
+     */
+    String ownerId() {
+        return clientId + ":" + Thread.currentThread().getId();
+    }
+
+    /**
+     * 记录一次获取锁
+     */
+    void recordAcquire(String prefix, long waitNanos, boolean acquired) {
+        lockMonitor.recordAcquire(prefix, waitNanos, acquired);
+    }
+
+    /**
+     * 锁的有效期，重入的锁释放一次后按加锁时的有效期重置
+     */
+    long leaseMsOf(String key) {
+        Hold hold = holds.get(key);
+        return hold == null ? leaseMs : hold.leaseMs;
+    }
+
+    /**
+     * 获取锁成功，第一次获取时记录，需要续期的锁开启看门狗
+     */
+    void onLocked(String prefix, String key, String owner, long leaseMs, boolean renew) {
+        holds.compute(key, (k, hold) -> {
+            // 重入，沿用第一次获取时的设置
+            if (hold != null && hold.owner.equals(owner)) {
+                return hold;
+            }
+            // 之前的持有者锁已过期，停止它的续期
+            if (hold != null && hold.renewal != null) {
+                hold.renewal.cancel(false);
+            }
+            Hold created = new Hold(owner, leaseMs);
+            lockMonitor.onHeld(prefix, key, owner);
+            if (renew) {
+                long interval = Math.max(1, leaseMs / 3);
+                created.renewal = watchdog.scheduleAtFixedRate(() -> renew(key, created),
+                        interval, interval, TimeUnit.MILLISECONDS);
+            }
+            return created;
+        });
+    }
+
+    /**
+     * 锁已释放，停止续期
+     */
+    void onReleased(String key, String owner) {
+        holds.computeIfPresent(key, (k, hold) -> {
+            if (!hold.owner.equals(owner)) {
+                return hold;
+            }
+            if (hold.renewal != null) {
+                hold.renewal.cancel(false);
+            }
+            lockMonitor.onReleased(key);
+            return null;
+        });
+    }
+
+    /**
+     * 登记等待锁释放，返回释放通知的信号量
+     */
+    Semaphore subscribe(String key) {
+        return waiters.compute(key, (k, w) -> {
+            if (w == null) {
+                w = new Waiters();
+            }
+            w.count++;
+            return w;
+        }).signal;
+    }
+
+    /**
+     * 取消等待，没有线程等待时移除
+     */
+    void unsubscribe(String key) {
+        waiters.computeIfPresent(key, (k, w) -> --w.count == 0 ? null : w);
+    }
+
+    /**
+     * 收到锁释放通知，唤醒一个等待的线程去竞争锁，没获取到的线程在锁再次释放时被唤醒
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String key = new String(message.getBody(), StandardCharsets.UTF_8);
+        Waiters w = waiters.get(key);
+        if (w != null) {
+            w.signal.release();
+        }
+    }
+
+    private void renew(String key, Hold hold) {
+        try {
+            Long result = stringRedisTemplate.execute(RENEW_SCRIPT, Collections.singletonList(key),
+                    hold.owner, String.valueOf(hold.leaseMs));
+            if (result == null || result == 0) {
+                // 锁已丢失，停止续期
+                log.warn("锁续期失败，锁已丢失：{}", key);
+                hold.renewal.cancel(false);
+                if (holds.remove(key, hold)) {
+                    lockMonitor.onReleased(key);
+                }
+            }
+        } catch (Exception e) {
+            // Redis暂时不可用，下次继续续期
+            log.error("锁续期异常：{}", key, e);
+        }
+    }
+
+    private static class Hold {
+        private final String owner;
+        private final long leaseMs;
+        private volatile ScheduledFuture<?> renewal;
+
+        private Hold(String owner, long leaseMs) {
+            this.owner = owner;
+            this.leaseMs = leaseMs;
+        }
+    }
+
+    private static class Waiters {
+        private final Semaphore signal = new Semaphore(0);
+        private int count;
+    }
+}
@@ -0,0 +1,127 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基于Redis Lua脚本的分布式限流器，支持令牌桶和滑动窗口两种算法，一个接口的多条规则一次脚本调用完成校验
+ * 被Redis拒绝的key在本地记录可放行的时间，此前的请求直接在本地拒绝，不再访问Redis
+ */
+@Slf4j
+@Component
+public class RedisRateLimiter {
+
+    private static final DefaultRedisScript<List> RATE_LIMIT_SCRIPT;
+
+    static {
+        RATE_LIMIT_SCRIPT = new DefaultRedisScript<>();
+        RATE_LIMIT_SCRIPT.setLocation(new ClassPathResource("rate_limit.lua"));
+        RATE_LIMIT_SCRIPT.setResultType(List.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 本地预过滤，key -> 可以再次访问Redis的时间戳
+     */
+    private final Cache<String, Long> blockedUntil = CacheBuilder.newBuilder()
+            .maximumSize(100_000)
+            .expireAfterWrite(10, TimeUnit.MINUTES)
+            .build();
+
+    /**
+     * 尝试获取一次访问许可
+     * @param key 限流key
+     * @param algorithm 限流算法
+     * @param permits 每个周期允许的请求数
+     * @param periodMs 周期毫秒数
+     * @return 0 允许访问；大于0 被限流，还需等待的毫秒数
+     */
+    public long tryAcquire(String key, RateLimit.Algorithm algorithm, long permits, long periodMs) {
+        return tryAcquire(Collections.singletonList(new Rule(key, algorithm, permits, periodMs)));
+    }
+
+    /**
+     * 尝试同时获取多条规则的访问许可，全部通过才扣减
+     * @param rules 限流规则
+     * @return 0 允许访问；大于0 被限流，还需等待的毫秒数
+     */
+    public long tryAcquire(List<Rule> rules) {
+        // 1. 本地预过滤，任意一条规则确定仍处于限流中，直接拒绝
+        long now = System.currentTimeMillis();
+        for (Rule rule : rules) {
+            Long until = blockedUntil.getIfPresent(rule.key);
+            if (until == null) {
+                continue;
+            }
+            if (until > now) {
+                return until - now;
+            }
+            blockedUntil.invalidate(rule.key);
+        }
+
+        // 2. 一次脚本调用校验所有规则，Redis异常时放行，避免限流组件拖垮业务
+        List<String> keys = new ArrayList<>(rules.size());
+        String[] args = new String[rules.size() * 4];
+        String requestId = UUID.fastUUID().toString(true);
+        for (int i = 0; i < rules.size(); i++) {
+            Rule rule = rules.get(i);
+            keys.add(rule.key);
+            args[4 * i] = rule.algorithm == RateLimit.Algorithm.SLIDING_WINDOW ? "1" : "0";
+            args[4 * i + 1] = String.valueOf(rule.permits);
+            args[4 * i + 2] = String.valueOf(rule.periodMs);
+            args[4 * i + 3] = requestId;
+        }
+        List<?> waits;
+        try {
+            waits = stringRedisTemplate.execute(RATE_LIMIT_SCRIPT, keys, (Object[]) args);
+        } catch (Exception e) {
+            log.error("限流脚本执行失败，放行请求，key：{}", keys, e);
+            return 0;
+        }
+        if (waits == null) {
+            return 0;
+        }
+
+        // 3. 被拒绝的规则，在等待时间内本地直接拒绝
+        long maxWait = 0;
+        for (int i = 0; i < waits.size(); i++) {
+            long wait = ((Number) waits.get(i)).longValue();
+            if (wait > 0) {
+                blockedUntil.put(keys.get(i), now + wait);
+                maxWait = Math.max(maxWait, wait);
+            }
+        }
+        return maxWait;
+    }
+
+    /**
+     * 一条限流规则
+     */
+    public static class Rule {
+        private final String key;
+        private final RateLimit.Algorithm algorithm;
+        private final long permits;
+        private final long periodMs;
+
+        public Rule(String key, RateLimit.Algorithm algorithm, long permits, long periodMs) {
+            this.key = key;
+            this.algorithm = algorithm;
+            this.permits = permits;
+            this.periodMs = periodMs;
+        }
+    }
+}
@@ -24,6 +24,9 @@ public class RefreshTokenInterceptor implements HandlerInterceptor {
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private TtlJitter ttlJitter;
+
     @Override
     public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
         // 1. 获取请求头token
@@ -47,8 +50,8 @@ public class RefreshTokenInterceptor implements HandlerInterceptor {
         // 5. 存在则保存在ThreadLocal
         UserHolder.saveUser(userDTO);
 
-        // 6. 刷新redis token ttl
-        stringRedisTemplate.expire(key, LOGIN_USER_TTL, TimeUnit.MINUTES);
+        // 6. 刷新redis token ttl，随机延长避免同一时刻登录的token同时过期
+        stringRedisTemplate.expire(key, ttlJitter.jitter(key, LOGIN_USER_TTL, TimeUnit.MINUTES), TimeUnit.MILLISECONDS);
         return true;
     }
 }
@@ -0,0 +1,50 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.Result;
+import com.hmdp.service.IVoucherOrderService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Map;
+
+/**
+ * 秒杀下单的本地预校验，在限流之前执行
+ * 已售罄、未开始、已结束的请求只用本地标记和本地缓存即可拒绝，不再消耗Redis限流脚本调用
+ */
+@Slf4j
+@Component
+public class SeckillCheckInterceptor implements HandlerInterceptor {
+
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        // 1. 只处理秒杀下单，seckill/batch 等路径变量不是优惠券id的请求直接放行
+        if (!"POST".equalsIgnoreCase(request.getMethod())) {
+            return true;
+        }
+        Map<String, String> variables = (Map<String, String>) request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+        String id = variables == null ? null : variables.get("id");
+        if (id == null || id.isEmpty() || id.length() > 18 || !id.chars().allMatch(Character::isDigit)) {
+            return true;
+        }
+
+        // 2. 本地校验，不能下单时直接返回失败原因
+        String error = voucherOrderService.checkSeckillVoucher(Long.valueOf(id));
+        if (error == null) {
+            return true;
+        }
+        log.debug("秒杀请求在本地被拒绝，优惠券：{}，原因：{}", id, error);
+        response.setContentType("application/json;charset=UTF-8");
+        response.getWriter().write(JSONUtil.toJsonStr(Result.fail(error)));
+        return false;
+    }
+}
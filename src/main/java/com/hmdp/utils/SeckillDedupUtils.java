@@ -0,0 +1,90 @@
+package com.hmdp.utils;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_KEY;
+
+/**
+ * 秒杀一人一单去重方式
+ * <ul>
+ *     <li>Set：seckill:order:{voucherId}，保存用户id</li>
+ *     <li>Bitmap：seckill:order:{voucherId}:bm，以用户id为偏移量，用户id连续时最省内存</li>
+ *     <li>分块Bitmap：seckill:order:{voucherId}:bm:{userId / 65536}，每块8KB，只为有用户的块分配内存，
+ *     seckill:order:{voucherId}:chunks 记录已分配的块，用户id稀疏时使用</li>
+ *     <li>按用户计数：seckill:order:{voucherId}:cnt，hash记录每个用户的购买数量，
+ *     seckill:order:{voucherId}:cnt:{yyyyMMdd} 记录当天的购买数量，用于每人限购多件或每天限购</li>
+ * </ul>
+ */
+public class SeckillDedupUtils {
+
+    public static final int DEDUP_SET = 0;
+    public static final int DEDUP_BITMAP = 1;
+    public static final int DEDUP_CHUNKED_BITMAP = 2;
+    public static final int DEDUP_COUNTER = 3;
+
+    /**
+     * 分块Bitmap每块的位数
+     */
+    public static final long CHUNK_BITS = 65536;
+
+    /**
+     * 规范化去重方式，null或未知值时视为Set
+     * @param dedupMode 去重方式
+     * @return 去重方式
+     */
+    public static int normalizeMode(Integer dedupMode) {
+        if (dedupMode == null || dedupMode < DEDUP_SET || dedupMode > DEDUP_COUNTER) {
+            return DEDUP_SET;
+        }
+        return dedupMode;
+    }
+
+    /**
+     * 确定去重方式，限购数量不是每人一件或限制了每天购买数量时只能使用按用户计数
+     * @param dedupMode 配置的去重方式
+     * @param limitPerUser 每人限购数量，0表示不限
+     * @param limitDaily 每人每天限购数量，0表示不限
+     * @return 去重方式
+     */
+    public static int resolveMode(Integer dedupMode, int limitPerUser, int limitDaily) {
+        if (limitPerUser != 1 || limitDaily > 0) {
+            return DEDUP_COUNTER;
+        }
+        return normalizeMode(dedupMode);
+    }
+
+    /**
+     * 规范化每人限购数量，null时为每人一件
+     */
+    public static int normalizeLimit(Integer limitPerUser) {
+        return limitPerUser == null || limitPerUser < 0 ? 1 : limitPerUser;
+    }
+
+    /**
+     * 按用户计数时使用的日期，yyyyMMdd
+     */
+    public static String day(LocalDate date) {
+        return date.format(DateTimeFormatter.BASIC_ISO_DATE);
+    }
+
+    public static String countKey(Long voucherId) {
+        return SECKILL_ORDER_KEY + voucherId + ":cnt";
+    }
+
+    public static String dailyCountKey(Long voucherId, String day) {
+        return countKey(voucherId) + ":" + day;
+    }
+
+    public static String bitmapKey(Long voucherId) {
+        return SECKILL_ORDER_KEY + voucherId + ":bm";
+    }
+
+    public static String chunkKey(Long voucherId, long userId) {
+        return bitmapKey(voucherId) + ":" + userId / CHUNK_BITS;
+    }
+
+    public static String chunkIndexKey(Long voucherId) {
+        return SECKILL_ORDER_KEY + voucherId + ":chunks";
+    }
+}
@@ -0,0 +1,104 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.VoucherOrder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_TIMEOUT_KEY;
+
+/**
+ * 未支付订单的超时队列，基于zset实现的延时队列
+ * member为 订单id:优惠券id:用户id，score为支付截止时间，到期后由定时任务认领并取消
+ */
+@Component
+public class SeckillOrderTimeoutQueue {
+
+    private static final DefaultRedisScript<List> CLAIM_SCRIPT;
+
+    static {
+        CLAIM_SCRIPT = new DefaultRedisScript<>();
+        CLAIM_SCRIPT.setLocation(new ClassPathResource("seckill_timeout_claim.lua"));
+        CLAIM_SCRIPT.setResultType(List.class);
+    }
+
+    /**
+     * 认领后推迟的时间，处理失败或节点宕机时订单在这之后重新到期
+     */
+    private static final long CLAIM_RETRY_MS = 60_000;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisIdWorker redisIdWorker;
+
+    /**
+     * 支付超时时间
+     */
+    @Value("${hmdp.seckill.pay-timeout-ms:900000}")
+    private long payTimeoutMs;
+
+    /**
+     * 订单加入超时队列，支付截止时间从下单时间（订单id中的时间戳）开始计算，消息积压或重试不会延长支付时间
+     * ZADD NX 已在队列中的订单不会推迟支付截止时间
+     * @param orders 新创建的订单
+     */
+    public void add(List<VoucherOrder> orders) {
+        if (orders.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        byte[][] args = new byte[orders.size() * 2 + 2][];
+        args[0] = SECKILL_ORDER_TIMEOUT_KEY.getBytes(StandardCharsets.UTF_8);
+        args[1] = "NX".getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < orders.size(); i++) {
+            VoucherOrder order = orders.get(i);
+            String member = order.getId() + ":" + order.getVoucherId() + ":" + order.getUserId();
+            // 时钟回拨等原因解析出的下单时间晚于当前时间时，按当前时间计算
+            long deadline = Math.min(redisIdWorker.timestampMillis(order.getId()), now) + payTimeoutMs;
+            args[2 * i + 2] = String.valueOf(deadline).getBytes(StandardCharsets.UTF_8);
+            args[2 * i + 3] = member.getBytes(StandardCharsets.UTF_8);
+        }
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> connection.execute("ZADD", args));
+    }
+
+    /**
+     * 认领已到期的订单
+     * @param limit 最多认领的数量
+     * @return 认领到的订单
+     */
+    @SuppressWarnings("unchecked")
+    public List<String> claim(int limit) {
+        List<String> members = stringRedisTemplate.execute(CLAIM_SCRIPT,
+                Collections.singletonList(SECKILL_ORDER_TIMEOUT_KEY),
+                String.valueOf(System.currentTimeMillis()), String.valueOf(limit), String.valueOf(CLAIM_RETRY_MS));
+        return members == null ? Collections.emptyList() : members;
+    }
+
+    /**
+     * 订单处理完成或已支付，移出队列
+     * @param members 订单
+     */
+    public void remove(Collection<String> members) {
+        if (!members.isEmpty()) {
+            stringRedisTemplate.opsForZSet().remove(SECKILL_ORDER_TIMEOUT_KEY, members.toArray());
+        }
+    }
+
+    /**
+     * 从member中解析订单id
+     */
+    public static Long orderId(String member) {
+        return Long.valueOf(member.substring(0, member.indexOf(':')));
+    }
+}
@@ -0,0 +1,209 @@
+package com.hmdp.utils;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.SeckillOrderResult;
+import com.hmdp.entity.VoucherOrder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_RESULT_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SECKILL_RESULT_KEY;
+
+/**
+ * 秒杀下单结果，查询时不访问数据库
+ * <ul>
+ *     <li>Redis：seckill:result:{voucherId} 的 hash，field为订单id，value为 userId:status，同一用户多次下单互不覆盖，
+ *     下单Lua脚本写入排队中，订单写入线程更新为已创建或失败，超时未支付时更新为已取消</li>
+ *     <li>本地：已结束的结果缓存在内存中，重复轮询无需访问Redis</li>
+ *     <li>长轮询：等待中的请求挂在本地，订单写入线程通过Redis发布订阅通知所有节点</li>
+ * </ul>
+ */
+@Slf4j
+@Component
+public class SeckillResultRegistry implements MessageListener {
+
+    /**
+     * 长轮询最长等待时间，单位毫秒
+     */
+    private static final long MAX_WAIT_MS = 30000;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    /**
+     * 已结束的下单结果，key为 userId:orderId，同一用户再次下单时是新的订单id，不会读到上一单的结果
+     */
+    private final Cache<String, SeckillOrderResult> finishedResults = CacheBuilder.newBuilder()
+            .maximumSize(100000)
+            .expireAfterWrite(10, TimeUnit.MINUTES)
+            .build();
+
+    /**
+     * 长轮询中的请求，key为 userId:orderId
+     */
+    private final Map<String, Queue<DeferredResult<Result>>> waiters = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(SECKILL_RESULT_CHANNEL));
+    }
+
+    /**
+     * 查询下单结果
+     * @param voucherId 优惠券id
+     * @param userId 用户id
+     * @param orderId 下单时返回的订单id
+     * @return 下单结果，没有秒杀记录或订单不属于该用户时返回null
+     */
+    public SeckillOrderResult query(Long voucherId, Long userId, Long orderId) {
+        String key = userId + ":" + orderId;
+        SeckillOrderResult result = finishedResults.getIfPresent(key);
+        if (result != null) {
+            return result;
+        }
+        Object value = stringRedisTemplate.opsForHash().get(SECKILL_RESULT_KEY + voucherId, orderId.toString());
+        if (value == null) {
+            return null;
+        }
+        // userId:status
+        String text = (String) value;
+        int index = text.indexOf(':');
+        if (!text.substring(0, index).equals(userId.toString())) {
+            return null;
+        }
+        result = new SeckillOrderResult(orderId, text.substring(index + 1));
+        if (result.isFinished()) {
+            finishedResults.put(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * 长轮询下单结果，排队中时挂起请求直到结果更新或超时，不占用请求线程
+     * @param voucherId 优惠券id
+     * @param userId 用户id
+     * @param orderId 下单时返回的订单id
+     * @param timeoutMs 最长等待时间，小于等于0时立即返回
+     * @return 异步结果
+     */
+    public DeferredResult<Result> await(Long voucherId, Long userId, Long orderId, long timeoutMs) {
+        long timeout = Math.min(Math.max(timeoutMs, 0), MAX_WAIT_MS);
+        String key = userId + ":" + orderId;
+        DeferredResult<Result> deferredResult = new DeferredResult<>(timeout > 0 ? timeout : null);
+        if (timeout > 0) {
+            // 1. 先挂起再查询，避免查询和挂起之间的通知丢失
+            waiters.compute(key, (k, queue) -> {
+                if (queue == null) {
+                    queue = new ConcurrentLinkedQueue<>();
+                }
+                queue.add(deferredResult);
+                return queue;
+            });
+            deferredResult.onCompletion(() -> waiters.computeIfPresent(key, (k, queue) -> {
+                queue.remove(deferredResult);
+                return queue.isEmpty() ? null : queue;
+            }));
+        }
+        // 2. 查询当前结果
+        SeckillOrderResult result = query(voucherId, userId, orderId);
+        if (result == null) {
+            deferredResult.setResult(Result.fail("没有秒杀记录！"));
+        } else if (timeout <= 0 || result.isFinished()) {
+            deferredResult.setResult(Result.ok(result));
+        } else {
+            // 3. 排队中，超时后返回排队中
+            SeckillOrderResult queued = result;
+            deferredResult.onTimeout(() -> deferredResult.setResult(Result.ok(queued)));
+        }
+        return deferredResult;
+    }
+
+    /**
+     * 订单已写入数据库，更新结果并通知所有节点
+     * @param voucherOrders 订单
+     */
+    public void markPersisted(List<VoucherOrder> voucherOrders) {
+        publish(voucherOrders, SeckillOrderResult.PERSISTED);
+    }
+
+    /**
+     * 订单创建失败，更新结果并通知所有节点
+     * @param voucherOrders 订单
+     */
+    public void markFailed(List<VoucherOrder> voucherOrders) {
+        publish(voucherOrders, SeckillOrderResult.FAILED);
+    }
+
+    /**
+     * 订单超时未支付已取消，更新结果并通知所有节点
+     * @param voucherOrders 订单
+     */
+    public void markCancelled(List<VoucherOrder> voucherOrders) {
+        publish(voucherOrders, SeckillOrderResult.CANCELLED);
+    }
+
+    private void publish(List<VoucherOrder> voucherOrders, String status) {
+        if (voucherOrders.isEmpty()) {
+            return;
+        }
+        // 1. 一次pipeline更新整批结果，消息体每行一条 voucherId:userId:orderId:status
+        StringBuilder message = new StringBuilder();
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (VoucherOrder order : voucherOrders) {
+                conn.hSet(SECKILL_RESULT_KEY + order.getVoucherId(), order.getId().toString(),
+                        order.getUserId() + ":" + status);
+                message.append(order.getVoucherId()).append(':').append(order.getUserId()).append(':')
+                        .append(order.getId()).append(':').append(status).append('\n');
+            }
+            return null;
+        });
+        // 2. 通知所有节点，唤醒长轮询的请求
+        stringRedisTemplate.convertAndSend(SECKILL_RESULT_CHANNEL, message.toString());
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        for (String line : body.split("\n")) {
+            // voucherId:userId:orderId:status
+            String[] parts = line.split(":");
+            if (parts.length != 4) {
+                continue;
+            }
+            String key = parts[1] + ":" + parts[2];
+            SeckillOrderResult result = new SeckillOrderResult(Long.valueOf(parts[2]), parts[3]);
+            finishedResults.put(key, result);
+            Queue<DeferredResult<Result>> queue = waiters.remove(key);
+            if (queue == null) {
+                continue;
+            }
+            for (DeferredResult<Result> deferredResult : queue) {
+                deferredResult.setResult(Result.ok(result));
+            }
+        }
+    }
+}
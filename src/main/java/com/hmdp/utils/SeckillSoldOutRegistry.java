@@ -0,0 +1,103 @@
+package com.hmdp.utils;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_RESTOCK_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SECKILL_SOLD_OUT_CHANNEL;
+
+/**
+ * 本地售罄标记，优惠券售罄后同一节点的后续请求无需访问Redis即可直接拒绝
+ * 某个节点第一次发现售罄时，通过Redis发布订阅通知所有节点
+ * 标记在短时间后过期，售罄和回补并发时残留的标记最多拒绝一个有效期的请求，之后重新由Lua脚本判断库存
+ */
+@Slf4j
+@Component
+public class SeckillSoldOutRegistry implements MessageListener {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    /**
+     * 售罄标记的有效期，单位毫秒
+     */
+    @Value("${hmdp.seckill.sold-out-ttl-ms:3000}")
+    private long soldOutTtlMs;
+
+    /**
+     * 已售罄的优惠券id
+     */
+    private Cache<Long, Boolean> soldOutVouchers;
+
+    @PostConstruct
+    private void init() {
+        soldOutVouchers = CacheBuilder.newBuilder()
+                .expireAfterWrite(soldOutTtlMs, TimeUnit.MILLISECONDS)
+                .build();
+        redisMessageListenerContainer.addMessageListener(this,
+                Arrays.asList(new ChannelTopic(SECKILL_SOLD_OUT_CHANNEL), new ChannelTopic(SECKILL_RESTOCK_CHANNEL)));
+    }
+
+    /**
+     * 判断优惠券是否已售罄，纯内存操作
+     * @param voucherId 优惠券id
+     * @return true 已售罄 false 未知
+     */
+    public boolean isSoldOut(Long voucherId) {
+        return soldOutVouchers.getIfPresent(voucherId) != null;
+    }
+
+    /**
+     * 标记优惠券售罄，并通知其它节点
+     * @param voucherId 优惠券id
+     */
+    public void markSoldOut(Long voucherId) {
+        // 本节点已标记过，说明已经广播过了，无需重复发布
+        if (soldOutVouchers.asMap().putIfAbsent(voucherId, Boolean.TRUE) != null) {
+            return;
+        }
+        stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, voucherId.toString());
+    }
+
+    /**
+     * 库存回补，清除所有节点的售罄标记
+     * 订单回滚、对账修复、预热重新加载库存后都要调用，否则各节点会一直拒绝该券的请求
+     * @param voucherId 优惠券id
+     */
+    public void restock(Long voucherId) {
+        soldOutVouchers.invalidate(voucherId);
+        stringRedisTemplate.convertAndSend(SECKILL_RESTOCK_CHANNEL, voucherId.toString());
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        String channel = new String(message.getChannel(), StandardCharsets.UTF_8);
+        try {
+            if (SECKILL_RESTOCK_CHANNEL.equals(channel)) {
+                soldOutVouchers.invalidate(Long.valueOf(body));
+                return;
+            }
+            soldOutVouchers.put(Long.valueOf(body), Boolean.TRUE);
+        } catch (NumberFormatException e) {
+            log.error("售罄消息格式错误：{}", body);
+        }
+    }
+}
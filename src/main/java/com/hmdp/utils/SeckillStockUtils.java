@@ -0,0 +1,53 @@
+package com.hmdp.utils;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+
+/**
+ * 秒杀库存分片工具，分片key为 seckill:stock:{voucherId}:{shard}
+ * 秒杀脚本只支持单实例Redis，所有分片在同一个实例上串行执行，分片不会带来并行，只是把一个热点key拆成多个key，
+ * 单个key的读写次数降为 1/分片数，便于按key统计热点；吞吐量与不分片基本相同，见 testStockShardsThroughput
+ */
+public class SeckillStockUtils {
+
+    /**
+     * 规范化分片数，null或小于1时视为不分片
+     * @param stockShards 分片数
+     * @return 大于等于1的分片数
+     */
+    public static int normalizeShards(Integer stockShards) {
+        return stockShards == null || stockShards < 1 ? 1 : stockShards;
+    }
+
+    /**
+     * 获取优惠券的所有库存key，不分片时只有一个key
+     * @param voucherId 优惠券id
+     * @param stockShards 分片数
+     * @return 库存key数组
+     */
+    public static String[] stockKeys(Long voucherId, int stockShards) {
+        if (stockShards <= 1) {
+            return new String[]{SECKILL_STOCK_KEY + voucherId};
+        }
+        String[] keys = new String[stockShards];
+        for (int i = 0; i < stockShards; i++) {
+            keys[i] = SECKILL_STOCK_KEY + voucherId + ":" + i;
+        }
+        return keys;
+    }
+
+    /**
+     * 将库存平均拆分到各分片，余数从第一个分片开始依次加一
+     * @param stock 总库存
+     * @param stockShards 分片数
+     * @return 各分片的库存
+     */
+    public static int[] splitStock(int stock, int stockShards) {
+        int[] shares = new int[stockShards];
+        int base = stock / stockShards;
+        int remainder = stock % stockShards;
+        for (int i = 0; i < stockShards; i++) {
+            shares[i] = base + (i < remainder ? 1 : 0);
+        }
+        return shares;
+    }
+}
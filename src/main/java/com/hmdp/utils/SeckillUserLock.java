@@ -0,0 +1,88 @@
+package com.hmdp.utils;
+
+import com.google.common.util.concurrent.Striped;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * 秒杀的用户本地锁，同一节点上同一用户的下单请求串行执行，防止连点时重复生成订单id
+ * 按用户id分段，不访问Redis；跨节点的一人一单由seckill.lua原子判断保证
+ */
+@Component
+public class SeckillUserLock {
+
+    /**
+     * 锁的分类，用于监控
+     */
+    private static final String LOCK_PREFIX = "seckill:user";
+
+    /**
+     * 锁的分段数，不同用户落在同一段时会互相等待
+     */
+    @Value("${hmdp.seckill.user-lock.stripes:1024}")
+    private int stripes;
+
+    /**
+     * 获取锁的最长等待时间，超时视为重复提交
+     */
+    @Value("${hmdp.seckill.user-lock.timeout-ms:500}")
+    private long timeoutMs;
+
+    @Resource
+    private LockMonitor lockMonitor;
+
+    private Striped<Lock> locks;
+
+    @PostConstruct
+    private void init() {
+        locks = Striped.lock(stripes);
+    }
+
+    /**
+     * 尝试获取用户锁，配合try-with-resources释放
+     * @param userId 用户id
+     * @return 锁，等待超时返回null
+     */
+    public Holder tryLock(Long userId) {
+        Lock lock = locks.get(userId);
+        long begin = System.nanoTime();
+        boolean locked;
+        try {
+            locked = lock.tryLock(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            locked = false;
+        }
+        lockMonitor.recordAcquire(LOCK_PREFIX, System.nanoTime() - begin, locked);
+        if (!locked) {
+            return null;
+        }
+        String key = LOCK_PREFIX + ":" + userId;
+        lockMonitor.onHeld(LOCK_PREFIX, key, Thread.currentThread().getName());
+        return new Holder(lock, key);
+    }
+
+    /**
+     * 已持有的用户锁，关闭时释放并记录持有时间
+     */
+    public class Holder implements AutoCloseable {
+        private final Lock lock;
+        private final String key;
+
+        private Holder(Lock lock, String key) {
+            this.lock = lock;
+            this.key = key;
+        }
+
+        @Override
+        public void close() {
+            lockMonitor.onReleased(key);
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.SeckillQueueStatus;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 秒杀排队室，用户先领取排队号，由定时任务按固定速率放行，轮到后换取短时有效的秒杀凭证才能下单
+ * 排队号 seckill:queue:{voucherId}，zset member为用户id，score为排队号
+ * 放行进度 seckill:queue:released:{voucherId}，hash count为已放行的排队号
+ * 秒杀凭证 seckill:pass:{voucherId}:{userId}
+ */
+@Slf4j
+@Component
+public class SeckillWaitingRoom {
+
+    private static final DefaultRedisScript<List> JOIN_SCRIPT;
+    private static final DefaultRedisScript<List> PASS_SCRIPT;
+    private static final DefaultRedisScript<Long> CONSUME_SCRIPT;
+    private static final DefaultRedisScript<Long> RELEASE_SCRIPT;
+
+    static {
+        JOIN_SCRIPT = new DefaultRedisScript<>();
+        JOIN_SCRIPT.setLocation(new ClassPathResource("seckill_queue_join.lua"));
+        JOIN_SCRIPT.setResultType(List.class);
+
+        PASS_SCRIPT = new DefaultRedisScript<>();
+        PASS_SCRIPT.setLocation(new ClassPathResource("seckill_queue_pass.lua"));
+        PASS_SCRIPT.setResultType(List.class);
+
+        CONSUME_SCRIPT = new DefaultRedisScript<>();
+        CONSUME_SCRIPT.setLocation(new ClassPathResource("seckill_queue_consume.lua"));
+        CONSUME_SCRIPT.setResultType(Long.class);
+
+        RELEASE_SCRIPT = new DefaultRedisScript<>();
+        RELEASE_SCRIPT.setLocation(new ClassPathResource("seckill_queue_release.lua"));
+        RELEASE_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 是否开启排队，开启后秒杀下单必须携带秒杀凭证
+     */
+    @Value("${hmdp.seckill.waiting-room.enabled:false}")
+    private boolean enabled;
+
+    /**
+     * 每张优惠券每秒放行的人数
+     */
+    @Value("${hmdp.seckill.waiting-room.release-rate:500}")
+    private long releaseRate;
+
+    /**
+     * 秒杀凭证有效秒数
+     */
+    @Value("${hmdp.seckill.waiting-room.pass-ttl-seconds:60}")
+    private long passTtlSeconds;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 进入排队，重复进入不会改变排队号
+     * @param voucherId 优惠券id
+     * @param userId 用户id
+     * @return 排队状态
+     */
+    public SeckillQueueStatus join(Long voucherId, Long userId) {
+        List<?> result = stringRedisTemplate.execute(JOIN_SCRIPT,
+                Arrays.asList(SECKILL_QUEUE_KEY + voucherId, SECKILL_QUEUE_SEQ_KEY + voucherId,
+                        SECKILL_QUEUE_RELEASED_KEY + voucherId, SECKILL_QUEUE_ACTIVE_KEY),
+                userId.toString(), voucherId.toString(), SECKILL_QUEUE_TTL.toString());
+        long ahead = ((Long) result.get(0)) - ((Long) result.get(1));
+        return new SeckillQueueStatus(Math.max(0, ahead), null);
+    }
+
+    /**
+     * 查询排队状态，轮到时发放秒杀凭证
+     * @param voucherId 优惠券id
+     * @param userId 用户id
+     * @return 排队状态，不在队列中时返回null
+     */
+    public SeckillQueueStatus query(Long voucherId, Long userId) {
+        List<?> result = stringRedisTemplate.execute(PASS_SCRIPT,
+                Arrays.asList(SECKILL_QUEUE_KEY + voucherId, SECKILL_QUEUE_RELEASED_KEY + voucherId,
+                        passKey(voucherId, userId)),
+                userId.toString(), UUID.fastUUID().toString(true), String.valueOf(passTtlSeconds));
+        long ahead = (Long) result.get(0);
+        if (ahead < 0) {
+            return null;
+        }
+        String pass = (String) result.get(1);
+        return new SeckillQueueStatus(ahead, StrUtil.isEmpty(pass) ? null : pass);
+    }
+
+    /**
+     * 使用秒杀凭证，每张凭证只能使用一次
+     * @param voucherId 优惠券id
+     * @param userId 用户id
+     * @param pass 用户提交的凭证
+     * @return true 凭证有效
+     */
+    public boolean consumePass(Long voucherId, Long userId, String pass) {
+        if (StrUtil.isBlank(pass)) {
+            return false;
+        }
+        Long result = stringRedisTemplate.execute(CONSUME_SCRIPT,
+                Collections.singletonList(passKey(voucherId, userId)), pass);
+        return result != null && result > 0;
+    }
+
+    /**
+     * 获取有人在排队的优惠券
+     */
+    public Set<String> activeVoucherIds() {
+        return stringRedisTemplate.opsForSet().members(SECKILL_QUEUE_ACTIVE_KEY);
+    }
+
+    /**
+     * 按速率推进优惠券的放行进度
+     * @param voucherId 优惠券id
+     * @return 本次放行的人数
+     */
+    public long release(Long voucherId) {
+        Long released = stringRedisTemplate.execute(RELEASE_SCRIPT,
+                Arrays.asList(SECKILL_QUEUE_SEQ_KEY + voucherId, SECKILL_QUEUE_RELEASED_KEY + voucherId,
+                        SECKILL_QUEUE_ACTIVE_KEY),
+                voucherId.toString(), String.valueOf(releaseRate), SECKILL_QUEUE_TTL.toString());
+        return released == null ? 0 : released;
+    }
+
+    private String passKey(Long voucherId, Long userId) {
+        return SECKILL_PASS_KEY + voucherId + ":" + userId;
+    }
+}
@@ -1,57 +1,136 @@
 package com.hmdp.utils;
 
-import cn.hutool.core.lang.UUID;
-import cn.hutool.core.util.BooleanUtil;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 
 import java.util.Collections;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
+import static com.hmdp.utils.RedisConstants.LOCK_UNLOCK_CHANNEL;
+
+/**
+ * 基于Redis hash的可重入锁，field为持有者标识（节点uuid:线程id），value为重入次数
+ * 由RedisLockClient创建，看门狗续期和释放通知由RedisLockClient统一处理
+ */
+@Slf4j
 public class SimpleRedisLock implements ILock {
 
     public static final String KEY_PREFIX = "lock:";
 
-    public static final DefaultRedisScript<Long> UNLOCK_SCRIPT;
-
-    private String name;
-
-    private StringRedisTemplate stringRedisTemplate;
-
-    private String ID_PREFIX;
+    private static final DefaultRedisScript<Long> LOCK_SCRIPT;
+    private static final DefaultRedisScript<Long> UNLOCK_SCRIPT;
 
     static {
+        LOCK_SCRIPT = new DefaultRedisScript<>();
+        LOCK_SCRIPT.setLocation(new ClassPathResource("lock.lua"));
+        LOCK_SCRIPT.setResultType(Long.class);
+
         UNLOCK_SCRIPT = new DefaultRedisScript<>();
         UNLOCK_SCRIPT.setLocation(new ClassPathResource("unlock.lua"));
         UNLOCK_SCRIPT.setResultType(Long.class);
     }
 
-    public SimpleRedisLock(String name, StringRedisTemplate stringRedisTemplate) {
-        this.name = name;
+    private final String key;
+
+    /**
+     * 锁的分类，用于监控，如 lock:shop:1 的分类为 lock:shop
+     */
+    private final String prefix;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final RedisLockClient client;
+
+    public SimpleRedisLock(String name, StringRedisTemplate stringRedisTemplate, RedisLockClient client) {
+        this.key = KEY_PREFIX + name;
+        this.prefix = key.substring(0, key.lastIndexOf(':'));
         this.stringRedisTemplate = stringRedisTemplate;
-        this.ID_PREFIX = UUID.randomUUID().toString(true) + "-";
+        this.client = client;
     }
 
     @Override
     public boolean tryLock(long timeoutSec) {
-        String threadId = getThreadId();
-        // 获取锁
-        Boolean success = stringRedisTemplate.opsForValue().setIfAbsent(KEY_PREFIX + name, threadId, timeoutSec, TimeUnit.SECONDS);
-        return BooleanUtil.isTrue(success);
+        String owner = client.ownerId();
+        long leaseMs = TimeUnit.SECONDS.toMillis(timeoutSec);
+        long begin = System.nanoTime();
+        boolean acquired = acquire(owner, leaseMs) == -1;
+        client.recordAcquire(prefix, System.nanoTime() - begin, acquired);
+        if (acquired) {
+            client.onLocked(prefix, key, owner, leaseMs, false);
+        }
+        return acquired;
+    }
+
+    @Override
+    public boolean tryLock(long waitTime, TimeUnit unit) {
+        long begin = System.nanoTime();
+        boolean acquired = doTryLock(waitTime, unit);
+        client.recordAcquire(prefix, System.nanoTime() - begin, acquired);
+        return acquired;
+    }
+
+    private boolean doTryLock(long waitTime, TimeUnit unit) {
+        String owner = client.ownerId();
+        long leaseMs = client.getLeaseMs();
+        long deadline = System.currentTimeMillis() + unit.toMillis(waitTime);
+        // 1. 先尝试一次，没有竞争时无需订阅
+        long ttl = acquire(owner, leaseMs);
+        if (ttl == -1) {
+            client.onLocked(prefix, key, owner, leaseMs, true);
+            return true;
+        }
+        if (waitTime <= 0) {
+            return false;
+        }
+        // 2. 登记等待，再重试一次，避免登记前锁已释放而错过通知
+        Semaphore signal = client.subscribe(key);
+        try {
+            while (true) {
+                ttl = acquire(owner, leaseMs);
+                if (ttl == -1) {
+                    client.onLocked(prefix, key, owner, leaseMs, true);
+                    return true;
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                // 3. 等待释放通知，最多等到锁过期或等待超时
+                signal.tryAcquire(Math.max(1, Math.min(ttl, remaining)), TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            client.unsubscribe(key);
+        }
     }
 
     @Override
     public void unlock() {
-        String threadId = getThreadId();
-        // 调用lua脚本，保证get+del的原子性
-        stringRedisTemplate.execute(UNLOCK_SCRIPT,
-                Collections.singletonList(KEY_PREFIX + name),
-                threadId);
+        String owner = client.ownerId();
+        // 调用lua脚本，保证判断持有者、重入次数减一和删除的原子性
+        Long result = stringRedisTemplate.execute(UNLOCK_SCRIPT, Collections.singletonList(key),
+                owner, String.valueOf(client.leaseMsOf(key)), LOCK_UNLOCK_CHANNEL);
+        if (result == null || result == -1) {
+            // 锁已过期或不是当前线程持有
+            log.warn("释放锁失败，锁未被当前线程持有：{}", key);
+            client.onReleased(key, owner);
+        } else if (result == 1) {
+            client.onReleased(key, owner);
+        }
     }
 
-    private String getThreadId() {
-        // 获取线程标识
-        return ID_PREFIX + Thread.currentThread().getId();
+    /**
+     * 执行加锁脚本
+     * @return -1 获取成功，否则为锁的剩余有效期，单位毫秒
+     */
+    private long acquire(String owner, long leaseMs) {
+        Long ttl = stringRedisTemplate.execute(LOCK_SCRIPT, Collections.singletonList(key),
+                owner, String.valueOf(leaseMs));
+        return ttl == null ? 0 : ttl;
     }
 }
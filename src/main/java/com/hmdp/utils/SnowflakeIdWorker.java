@@ -0,0 +1,194 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.util.BooleanUtil;
+import cn.hutool.core.util.RandomUtil;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.util.Collections;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 雪花算法id生成器，完全在内存中生成id，不访问Redis
+ * id结构：41位毫秒时间戳 | 10位workerId | 12位毫秒内序列号
+ * workerId 启动时从Redis租用（id:worker:{n}），后台定时续期，租约丢失时重新租用新的workerId
+ * 超过租约有效期仍未续期成功时，workerId可能已被其它节点占用，发号前先同步续期，续期失败则拒绝发号
+ */
+@Slf4j
+public class SnowflakeIdWorker {
+
+    /**
+     * 开始时间戳，单位毫秒
+     */
+    private static final long BEGIN_TIMESTAMP_MS = 1764601888000L;
+
+    private static final int WORKER_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+    private static final long MAX_WORKER_ID = (1L << WORKER_BITS) - 1;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    public static final String WORKER_KEY_PREFIX = "id:worker:";
+
+    /**
+     * 租约有效期和续期间隔，单位秒
+     */
+    private static final long LEASE_TTL = 60;
+    private static final long RENEW_INTERVAL = 20;
+
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT;
+    private static final DefaultRedisScript<Long> RELEASE_SCRIPT;
+
+    static {
+        RENEW_SCRIPT = new DefaultRedisScript<>();
+        RENEW_SCRIPT.setLocation(new ClassPathResource("id_worker_renew.lua"));
+        RENEW_SCRIPT.setResultType(Long.class);
+
+        RELEASE_SCRIPT = new DefaultRedisScript<>();
+        RELEASE_SCRIPT.setLocation(new ClassPathResource("id_worker_release.lua"));
+        RELEASE_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 租约标识，释放和续期时校验，防止误操作其它节点的租约
+     */
+    private final String leaseToken = UUID.randomUUID().toString(true);
+
+    private final ScheduledExecutorService renewExecutor;
+
+    private volatile long workerId;
+
+    /**
+     * 租约的本地到期时间（System.nanoTime），从发起租用或续期请求之前开始计算，比Redis中的实际到期时间略早
+     */
+    private volatile long leaseExpireNanos;
+
+    /**
+     * 上次发放的 (毫秒时间戳 << 12 | 序列号)，通过CAS更新，线程间无锁
+     */
+    private final AtomicLong state = new AtomicLong();
+
+    /**
+     * 租用workerId并启动后台续期
+     * @param stringRedisTemplate 只在租用和续期时使用
+     */
+    public SnowflakeIdWorker(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.workerId = leaseWorkerId();
+        this.renewExecutor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("id-worker-lease").setDaemon(true).build());
+        renewExecutor.scheduleWithFixedDelay(this::renewLease, RENEW_INTERVAL, RENEW_INTERVAL, TimeUnit.SECONDS);
+        log.info("雪花算法id生成器启动，workerId：{}", workerId);
+    }
+
+    /**
+     * 从id中解析生成时间
+     * @return 毫秒时间戳
+     */
+    public static long timestampMillis(long id) {
+        return (id >>> (WORKER_BITS + SEQUENCE_BITS)) + BEGIN_TIMESTAMP_MS;
+    }
+
+    public long nextId() {
+        // 租约已过期，先同步续期或重新租用，避免与接手该workerId的节点生成重复id
+        if (System.nanoTime() - leaseExpireNanos >= 0) {
+            ensureLease();
+        }
+        while (true) {
+            long last = state.get();
+            long lastMs = last >>> SEQUENCE_BITS;
+            long lastSequence = last & SEQUENCE_MASK;
+            long nowMs = System.currentTimeMillis() - BEGIN_TIMESTAMP_MS;
+
+            long ms;
+            long sequence;
+            if (nowMs > lastMs) {
+                // 1. 进入新的毫秒，序列号从0开始
+                ms = nowMs;
+                sequence = 0;
+            } else if (lastSequence < SEQUENCE_MASK) {
+                // 2. 同一毫秒内，或时钟回拨时沿用上次的时间戳，序列号递增
+                ms = lastMs;
+                sequence = lastSequence + 1;
+            } else {
+                // 3. 序列号用完，借用下一毫秒，时间戳只增不减，不会因时钟回拨产生重复id
+                ms = lastMs + 1;
+                sequence = 0;
+            }
+            if (state.compareAndSet(last, ms << SEQUENCE_BITS | sequence)) {
+                return ms << (WORKER_BITS + SEQUENCE_BITS) | workerId << SEQUENCE_BITS | sequence;
+            }
+        }
+    }
+
+    public long getWorkerId() {
+        return workerId;
+    }
+
+    /**
+     * 停止续期并释放租约
+     */
+    public void shutdown() {
+        renewExecutor.shutdownNow();
+        stringRedisTemplate.execute(RELEASE_SCRIPT,
+                Collections.singletonList(WORKER_KEY_PREFIX + workerId), leaseToken);
+    }
+
+    /**
+     * 从随机位置开始依次尝试 SET id:worker:{n} token NX EX 60
+     */
+    private long leaseWorkerId() {
+        long begin = System.nanoTime();
+        long start = RandomUtil.randomLong(MAX_WORKER_ID + 1);
+        for (long i = 0; i <= MAX_WORKER_ID; i++) {
+            long id = (start + i) & MAX_WORKER_ID;
+            Boolean success = stringRedisTemplate.opsForValue()
+                    .setIfAbsent(WORKER_KEY_PREFIX + id, leaseToken, LEASE_TTL, TimeUnit.SECONDS);
+            if (BooleanUtil.isTrue(success)) {
+                leaseExpireNanos = begin + TimeUnit.SECONDS.toNanos(LEASE_TTL);
+                return id;
+            }
+        }
+        throw new IllegalStateException("没有可用的workerId");
+    }
+
+    /**
+     * 租约过期时在发号线程中同步续期，多个线程同时发现过期时只续期一次
+     */
+    private synchronized void ensureLease() {
+        if (System.nanoTime() - leaseExpireNanos < 0) {
+            return;
+        }
+        renewLease();
+        if (System.nanoTime() - leaseExpireNanos >= 0) {
+            throw new IllegalStateException("workerId租约已过期且续期失败，暂停发号，workerId：" + workerId);
+        }
+    }
+
+    private synchronized void renewLease() {
+        try {
+            long begin = System.nanoTime();
+            Long result = stringRedisTemplate.execute(RENEW_SCRIPT,
+                    Collections.singletonList(WORKER_KEY_PREFIX + workerId), leaseToken, String.valueOf(LEASE_TTL));
+            if (result != null && result == 1) {
+                // 记录最近一次续期成功的时间
+                leaseExpireNanos = begin + TimeUnit.SECONDS.toNanos(LEASE_TTL);
+                return;
+            }
+            // 租约已过期并可能被其它节点占用，换一个新的workerId
+            long oldWorkerId = workerId;
+            workerId = leaseWorkerId();
+            log.warn("workerId租约丢失，{} -> {}", oldWorkerId, workerId);
+        } catch (Exception e) {
+            log.error("workerId续期失败，workerId：{}", workerId, e);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TTL随机化，防止批量预热或重启后大量key在同一时刻过期（缓存雪崩）
+ * 实际TTL在 [ttl, ttl * (1 + ratio)] 之间均匀分布，只延长不缩短，比例可以按key前缀配置，最长前缀优先
+ */
+@Slf4j
+@Component
+public class TtlJitter {
+
+    /**
+     * 默认的随机延长比例，0表示不加随机
+     */
+    @Value("${hmdp.cache.ttl-jitter.ratio:0.1}")
+    private double defaultRatio;
+
+    /**
+     * 按key前缀配置的比例，格式为 前缀=比例，逗号分隔，如 cache:shop:=0.2,login:token:=0.1
+     */
+    @Value("${hmdp.cache.ttl-jitter.ratios:}")
+    private String ratiosConfig;
+
+    private final Map<String, Double> ratios = new LinkedHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        for (String entry : StrUtil.split(ratiosConfig, ',', true, true)) {
+            int index = entry.lastIndexOf('=');
+            if (index <= 0) {
+                log.error("TTL随机比例配置格式错误：{}", entry);
+                continue;
+            }
+            ratios.put(entry.substring(0, index).trim(), Double.valueOf(entry.substring(index + 1).trim()));
+        }
+    }
+
+    /**
+     * 计算随机化后的TTL
+     * @param key 缓存key，按前缀匹配比例
+     * @param ttl 基础TTL
+     * @param unit 时间单位
+     * @return 随机化后的TTL，单位毫秒
+     */
+    public long jitter(String key, long ttl, TimeUnit unit) {
+        return spread(unit.toMillis(ttl), ratioOf(key));
+    }
+
+    /**
+     * key对应的随机延长比例
+     */
+    public double ratioOf(String key) {
+        String matched = null;
+        for (String prefix : ratios.keySet()) {
+            if (key.startsWith(prefix) && (matched == null || prefix.length() > matched.length())) {
+                matched = prefix;
+            }
+        }
+        return matched == null ? defaultRatio : ratios.get(matched);
+    }
+
+    /**
+     * 在 [ttlMs, ttlMs * (1 + ratio)] 之间随机取值
+     */
+    public static long spread(long ttlMs, double ratio) {
+        if (ratio <= 0 || ttlMs <= 0) {
+            return ttlMs;
+        }
+        return ttlMs + (long) (ttlMs * ratio * ThreadLocalRandom.current().nextDouble());
+    }
+}
@@ -88,6 +88,10 @@ DROP TABLE IF EXISTS `tb_seckill_voucher`;
 CREATE TABLE `tb_seckill_voucher`  (
   `voucher_id` bigint(20) UNSIGNED NOT NULL COMMENT '关联的优惠券的id',
   `stock` int(8) NOT NULL COMMENT '库存',
+  `stock_shards` int(4) UNSIGNED NOT NULL DEFAULT 1 COMMENT 'Redis库存分片数，大于1时库存拆分到多个key',
+  `dedup_mode` tinyint(1) UNSIGNED NOT NULL DEFAULT 0 COMMENT '一人一单去重方式，0：Set；1：Bitmap；2：分块Bitmap；3：按用户计数',
+  `limit_per_user` int(8) UNSIGNED NOT NULL DEFAULT 1 COMMENT '每个用户最多购买数量，0表示不限',
+  `limit_daily` int(8) UNSIGNED NOT NULL DEFAULT 0 COMMENT '每个用户每天最多购买数量，0表示不限',
   `create_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
   `begin_time` timestamp NOT NULL DEFAULT '0000-00-00 00:00:00' COMMENT '生效时间',
   `end_time` timestamp NOT NULL DEFAULT '0000-00-00 00:00:00' COMMENT '失效时间',
@@ -1274,7 +1278,8 @@ CREATE TABLE `tb_voucher_order`  (
   `use_time` timestamp NULL DEFAULT NULL COMMENT '核销时间',
   `refund_time` timestamp NULL DEFAULT NULL COMMENT '退款时间',
   `update_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
-  PRIMARY KEY (`id`) USING BTREE
+  PRIMARY KEY (`id`) USING BTREE,
+  INDEX `idx_voucher_user`(`voucher_id`, `user_id`) USING BTREE
 ) ENGINE = InnoDB CHARACTER SET = utf8mb4 COLLATE = utf8mb4_general_ci ROW_FORMAT = Compact;
 
 -- ----------------------------
@@ -0,0 +1,7 @@
+-- 比较租约标识是否与当前节点一致
+if (redis.call('get', KEYS[1]) == ARGV[1]) then
+    -- 一致，删除租约
+    return redis.call('del', KEYS[1])
+end
+-- 不一致，返回0
+return 0
@@ -0,0 +1,7 @@
+-- 比较租约标识是否与当前节点一致
+if (redis.call('get', KEYS[1]) == ARGV[1]) then
+    -- 一致，续期
+    return redis.call('expire', KEYS[1], ARGV[2])
+end
+-- 不一致，租约已丢失，返回0
+return 0
@@ -0,0 +1,17 @@
+-- 可重入锁，锁是一个hash，field为持有者标识（节点uuid:线程id），value为重入次数
+-- KEYS[1] 锁的key
+-- ARGV[1] 持有者标识，ARGV[2] 锁的有效期，单位毫秒
+-- 返回-1表示获取成功，否则返回锁的剩余有效期
+
+-- 1. 锁不存在，或已被自己持有，重入次数+1并重置有效期
+if (redis.call('exists', KEYS[1]) == 0 or redis.call('hexists', KEYS[1], ARGV[1]) == 1) then
+    redis.call('hincrby', KEYS[1], ARGV[1], 1)
+    redis.call('pexpire', KEYS[1], ARGV[2])
+    return -1
+end
+-- 2. 被其它线程持有，返回剩余有效期，等待方最多等这么久
+local ttl = redis.call('pttl', KEYS[1])
+if (ttl < 0) then
+    return 0
+end
+return ttl
@@ -0,0 +1,8 @@
+-- 看门狗续期，仍是自己持有的锁才续期
+-- KEYS[1] 锁的key
+-- ARGV[1] 持有者标识，ARGV[2] 锁的有效期，单位毫秒
+if (redis.call('hexists', KEYS[1], ARGV[1]) == 1) then
+    return redis.call('pexpire', KEYS[1], ARGV[2])
+end
+-- 锁已丢失，返回0
+return 0
@@ -0,0 +1,69 @@
+-- 一次校验接口上的所有限流规则，支持令牌桶和滑动窗口，全部通过才扣减，任意一条不通过时都不修改
+-- KEYS 每条规则的限流key
+-- ARGV 每4个一组：算法（0 令牌桶，1 滑动窗口），每个周期允许的请求数（令牌桶同时也是桶容量），周期毫秒数，本次请求的唯一标识
+-- 返回每条规则还需等待的毫秒数，0表示通过
+
+-- 使用Redis服务器时间，避免各节点时钟不一致；低版本Redis需开启命令复制才能在TIME之后写入
+if redis.replicate_commands then
+    redis.replicate_commands()
+end
+
+local time = redis.call('time')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+
+-- 1. 依次判断每条规则，只读不写
+local waits = {}
+local tokens = {}
+local passed = true
+for i, key in ipairs(KEYS) do
+    local algorithm = tonumber(ARGV[4 * i - 3])
+    local permits = tonumber(ARGV[4 * i - 2])
+    local period = tonumber(ARGV[4 * i - 1])
+    local wait = 0
+    if (algorithm == 1) then
+        -- 滑动窗口：移除窗口之外的请求，窗口已满时等最早的请求滑出窗口
+        redis.call('zremrangebyscore', key, '-inf', now - period)
+        if (redis.call('zcard', key) >= permits) then
+            local oldest = redis.call('zrange', key, 0, 0, 'WITHSCORES')
+            wait = math.max(1, tonumber(oldest[2]) + period - now)
+        end
+    else
+        -- 令牌桶：读取上次剩余的令牌数和时间，不存在说明桶是满的，再按流逝的时间补充令牌
+        local bucket = redis.call('hmget', key, 'tokens', 'ts')
+        local remaining = tonumber(bucket[1])
+        local ts = tonumber(bucket[2])
+        if (remaining == nil or ts == nil) then
+            remaining = permits
+            ts = now
+        end
+        if (now > ts) then
+            remaining = math.min(permits, remaining + (now - ts) * permits / period)
+        end
+        if (remaining < 1) then
+            wait = math.ceil((1 - remaining) * period / permits)
+        end
+        tokens[i] = remaining
+    end
+    if (wait > 0) then
+        passed = false
+    end
+    waits[i] = wait
+end
+
+-- 2. 全部通过才扣减，避免前面的规则白白消耗配额
+if (passed) then
+    for i, key in ipairs(KEYS) do
+        local algorithm = tonumber(ARGV[4 * i - 3])
+        local permits = tonumber(ARGV[4 * i - 2])
+        local period = tonumber(ARGV[4 * i - 1])
+        if (algorithm == 1) then
+            redis.call('zadd', key, now, ARGV[4 * i])
+            redis.call('pexpire', key, period)
+        else
+            -- 桶补满所需的时间后自动过期
+            redis.call('hmset', key, 'tokens', tostring(tokens[i] - 1), 'ts', tostring(now))
+            redis.call('pexpire', key, period)
+        end
+    end
+end
+return waits
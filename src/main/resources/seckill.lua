@@ -4,33 +4,174 @@
 --- DateTime: 2025/12/3 20:01
 ---
 
+-- 秒杀下单，一次调用可以为同一个用户抢一张或多张优惠券
+-- 只支持单实例或主从Redis：库存分片、订单、结果等key在脚本中拼接，没有通过KEYS传入，也没有hash tag，不能在Redis Cluster上执行
+-- 返回每张优惠券的结果：0：成功；1：库存不足；2：已达购买上限（一人一单时为重复下单）；3：库存未加载；
+-- 5：当天购买数量已达上限；6：全部成功模式下其它优惠券失败，未执行
+
 -- 1. 参数列表
--- 1.1. 优惠券id
-local voucherId = ARGV[1]
--- 1.2. 用户id
-local userId = ARGV[2]
-
--- 2. 数据key
--- 2.1. 库存key
-local stockKey = "seckill:stock:" .. voucherId
--- 2.2. 订单key
-local orderKey = "seckill:order:" .. voucherId
-
--- 3. 脚本业务
--- 3.1. 判断库存是否充足 get stockKey
-if (tonumber(redis.call('get', stockKey)) <= 0) then
-    -- 3.2. 库存不足，返回1
-    return 1
+-- KEYS[1] 订单消息队列key
+local streamKey = KEYS[1]
+-- 1.1. 用户id
+local userId = ARGV[1]
+local uid = tonumber(userId)
+-- 1.2. 当天日期 yyyyMMdd，由应用传入
+local day = ARGV[2]
+-- 1.3. 批量模式，0：全部成功或全部失败；1：尽力而为，能抢到的都下单
+local allOrNothing = (ARGV[3] ~= "1")
+-- 1.4. 之后每6个参数一组，对应一张优惠券
+-- 优惠券id，订单id，库存分片数（小于等于1时不分片），一人一单去重方式（0：Set；1：Bitmap；2：分块Bitmap；3：按用户计数），
+-- 每人限购数量（0表示不限），每人每天限购数量（0表示不限）
+local GROUP_SIZE = 6
+
+-- 2. 判断能否下单，返回结果码，分片库存时记录选中的分片
+local function check(v)
+    -- 2.1. 判断库存是否充足
+    if (v.stockShards <= 1) then
+        -- 2.1.1. get stockKey
+        local stock = tonumber(redis.call('get', v.stockKey))
+        if (stock == nil) then
+            -- 库存未加载（如Redis数据丢失尚未预热）
+            return 3
+        end
+        if (stock <= 0) then
+            return 1
+        end
+    else
+        -- 2.1.2. 分片库存，按用户id选择起始分片，为空时依次尝试其它分片
+        -- 单实例下各分片仍在同一个线程中串行执行，不会提高吞吐，起始分片售罄后还要多读几个分片
+        local start = uid % v.stockShards
+        local shardKey = nil
+        local loaded = false
+        for i = 0, v.stockShards - 1 do
+            local key = v.stockKey .. ":" .. ((start + i) % v.stockShards)
+            local stock = tonumber(redis.call('get', key))
+            if (stock ~= nil) then
+                loaded = true
+                if (stock > 0) then
+                    shardKey = key
+                    break
+                end
+            end
+        end
+        if (not loaded) then
+            return 3
+        end
+        if (shardKey == nil) then
+            return 1
+        end
+        v.stockKey = shardKey
+    end
+
+    -- 2.2. 判断用户是否还能购买
+    if (v.dedupMode == 3) then
+        -- 2.2.1. 按用户计数 HGET countKey userId
+        local bought = tonumber(redis.call('hget', v.countKey, userId) or '0')
+        if (v.limitPerUser > 0 and bought >= v.limitPerUser) then
+            return 2
+        end
+        if (v.limitDaily > 0 and tonumber(redis.call('hget', v.dailyCountKey, userId) or '0') >= v.limitDaily) then
+            return 5
+        end
+    elseif (v.bitKey ~= nil) then
+        -- 2.2.2. Bitmap GETBIT bitKey bitOffset
+        if (redis.call('getbit', v.bitKey, v.bitOffset) == 1) then
+            return 2
+        end
+    elseif (redis.call('sismember', v.orderKey, userId) == 1) then
+        -- 2.2.3. Set SISMEMBER orderKey userId
+        return 2
+    end
+    return 0
+end
+
+-- 3. 扣库存、保存用户并发送订单消息
+local function apply(v)
+    -- 3.1. 扣库存 incrby stockKey -1
+    redis.call('incrby', v.stockKey, -1)
+
+    -- 3.2. 下单(保存用户)
+    if (v.dedupMode == 3) then
+        -- HINCRBY countKey userId 1，当天的计数保留两天
+        redis.call('hincrby', v.countKey, userId, 1)
+        if (v.limitDaily > 0) then
+            redis.call('hincrby', v.dailyCountKey, userId, 1)
+            redis.call('expire', v.dailyCountKey, 172800)
+        end
+    elseif (v.bitKey ~= nil) then
+        -- SETBIT bitKey bitOffset 1
+        redis.call('setbit', v.bitKey, v.bitOffset, 1)
+        if (v.dedupMode == 2) then
+            -- 记录已分配的块，对账时统计用户数
+            redis.call('sadd', v.orderKey .. ":chunks", math.floor(uid / 65536))
+        end
+    else
+        -- SADD orderKey userId
+        redis.call('sadd', v.orderKey, userId)
+    end
+
+    -- 3.3. 发送消息到队列中 XADD stream.orders * k1 v1 k2 v2 ...
+    redis.call('xadd', streamKey, '*', 'userId', userId, 'voucherId', v.voucherId, 'id', v.orderId)
+
+    -- 3.4. 记录下单结果为排队中，供客户端按订单id轮询 HSET resultKey orderId userId:queued
+    redis.call('hset', v.resultKey, v.orderId, userId .. ":queued")
+    redis.call('expire', v.resultKey, 86400)
+end
+
+-- 4. 解析每张优惠券的参数和数据key
+local vouchers = {}
+for i = 4, #ARGV, GROUP_SIZE do
+    local v = {}
+    v.voucherId = ARGV[i]
+    v.orderId = ARGV[i + 1]
+    v.stockShards = tonumber(ARGV[i + 2]) or 1
+    v.dedupMode = tonumber(ARGV[i + 3]) or 0
+    v.limitPerUser = tonumber(ARGV[i + 4]) or 1
+    v.limitDaily = tonumber(ARGV[i + 5]) or 0
+    -- 库存key
+    v.stockKey = "seckill:stock:" .. v.voucherId
+    -- 订单key
+    v.orderKey = "seckill:order:" .. v.voucherId
+    -- 下单结果key
+    v.resultKey = "seckill:result:" .. v.voucherId
+    -- 用户购买数量key，hash field为用户id
+    v.countKey = v.orderKey .. ":cnt"
+    v.dailyCountKey = v.countKey .. ":" .. day
+    if (v.dedupMode == 1) then
+        -- Bitmap，以用户id为偏移量
+        v.bitKey = v.orderKey .. ":bm"
+        v.bitOffset = uid
+    elseif (v.dedupMode == 2) then
+        -- 分块Bitmap，每块65536位
+        v.bitKey = v.orderKey .. ":bm:" .. math.floor(uid / 65536)
+        v.bitOffset = uid % 65536
+    end
+    vouchers[#vouchers + 1] = v
 end
 
--- 3.3. 判断用户是否下单 SISMEMBER orderKey userId
-if (redis.call('sismember', orderKey, userId) == 1) then
-    -- 3.4. 用户已下单，返回2
-    return 2
+-- 5. 先全部判断，再统一扣减
+local results = {}
+local failed = false
+for i, v in ipairs(vouchers) do
+    results[i] = check(v)
+    if (results[i] ~= 0) then
+        failed = true
+    end
 end
 
--- 3.5. 扣库存 incrby stockKey -1
-redis.call('incrby', stockKey, -1)
+-- 6. 全部成功模式下有一张失败，其它优惠券都不执行
+if (failed and allOrNothing) then
+    for i = 1, #results do
+        if (results[i] == 0) then
+            results[i] = 6
+        end
+    end
+    return results
+end
 
--- 3.6. 下单(保存用户) sadd orderKey userId
-redis.call('sadd', orderKey, userId)
+for i, v in ipairs(vouchers) do
+    if (results[i] == 0) then
+        apply(v)
+    end
+end
+return results
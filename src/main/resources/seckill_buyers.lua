@@ -0,0 +1,28 @@
+-- 统计秒杀券的购买用户数（按用户计数时为购买数量），兼容各种去重方式，对账时一页只需一次调用
+-- ARGV：voucherId1, dedupMode1, voucherId2, dedupMode2, ...
+local counts = {}
+for i = 1, #ARGV, 2 do
+    local orderKey = "seckill:order:" .. ARGV[i]
+    local dedupMode = tonumber(ARGV[i + 1]) or 0
+    local count = 0
+    if (dedupMode == 1) then
+        -- Bitmap BITCOUNT
+        count = redis.call('bitcount', orderKey .. ":bm")
+    elseif (dedupMode == 2) then
+        -- 分块Bitmap，逐块BITCOUNT
+        local chunks = redis.call('smembers', orderKey .. ":chunks")
+        for _, chunk in ipairs(chunks) do
+            count = count + redis.call('bitcount', orderKey .. ":bm:" .. chunk)
+        end
+    elseif (dedupMode == 3) then
+        -- 按用户计数，累加所有用户的购买数量
+        for _, bought in ipairs(redis.call('hvals', orderKey .. ":cnt")) do
+            count = count + tonumber(bought)
+        end
+    else
+        -- Set SCARD
+        count = redis.call('scard', orderKey)
+    end
+    counts[#counts + 1] = count
+end
+return counts
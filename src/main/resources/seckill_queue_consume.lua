@@ -0,0 +1,6 @@
+-- 使用秒杀凭证，凭证一致时删除，保证一张凭证只能下单一次
+-- KEYS[1] 秒杀凭证key ARGV[1] 用户提交的凭证
+if (redis.call('get', KEYS[1]) == ARGV[1]) then
+    return redis.call('del', KEYS[1])
+end
+return 0
@@ -0,0 +1,23 @@
+-- 进入秒杀排队，同一用户重复进入时返回原来的排队号
+-- KEYS[1] 排队zset KEYS[2] 排队号序列 KEYS[3] 放行进度hash KEYS[4] 排队中的优惠券set
+-- ARGV[1] 用户id ARGV[2] 优惠券id ARGV[3] 排队数据过期秒数
+-- 返回 {排队号, 已放行的排队号}
+
+local userId = ARGV[1]
+
+-- 1. 已经在排队中，直接返回原排队号
+local ticket = redis.call('zscore', KEYS[1], userId)
+if not ticket then
+    -- 2. 领取新的排队号，score即排队号，按先来后到排序
+    ticket = redis.call('incr', KEYS[2])
+    redis.call('zadd', KEYS[1], ticket, userId)
+    redis.call('expire', KEYS[1], ARGV[3])
+    redis.call('expire', KEYS[2], ARGV[3])
+    redis.call('expire', KEYS[3], ARGV[3])
+    -- 3. 登记到排队中的优惠券，由定时任务按速率放行
+    redis.call('sadd', KEYS[4], ARGV[2])
+end
+
+-- 4. 返回排队号和当前放行进度
+local released = tonumber(redis.call('hget', KEYS[3], 'count') or '0')
+return {tonumber(ticket), released}
@@ -0,0 +1,28 @@
+-- 查询排队进度，轮到时发放秒杀凭证并离开队列
+-- KEYS[1] 排队zset KEYS[2] 放行进度hash KEYS[3] 秒杀凭证key
+-- ARGV[1] 用户id ARGV[2] 新凭证 ARGV[3] 凭证有效秒数
+-- 返回 {前面还有的人数, 凭证}，人数为-1表示不在队列中
+
+-- 1. 已经发放过凭证且未使用，直接返回
+local pass = redis.call('get', KEYS[3])
+if pass then
+    return {0, pass}
+end
+
+-- 2. 判断是否在队列中
+local ticket = redis.call('zscore', KEYS[1], ARGV[1])
+if not ticket then
+    return {-1, ''}
+end
+
+-- 3. 排队号大于放行进度，还没轮到
+local released = tonumber(redis.call('hget', KEYS[2], 'count') or '0')
+local ahead = tonumber(ticket) - released
+if ahead > 0 then
+    return {ahead, ''}
+end
+
+-- 4. 轮到了，离开队列并发放凭证，凭证过期后需重新排队
+redis.call('zrem', KEYS[1], ARGV[1])
+redis.call('set', KEYS[3], ARGV[2], 'EX', ARGV[3])
+return {0, ARGV[2]}
@@ -0,0 +1,47 @@
+-- 按固定速率放行排队，多个节点同时执行也不会超过设定的速率
+-- KEYS[1] 排队号序列 KEYS[2] 放行进度hash KEYS[3] 排队中的优惠券set
+-- ARGV[1] 优惠券id ARGV[2] 每秒放行人数 ARGV[3] 排队数据过期秒数
+-- 返回本次放行的人数
+
+-- 使用Redis服务器时间，避免各节点时钟不一致；低版本Redis需开启命令复制才能在TIME之后写入
+if redis.replicate_commands then
+    redis.replicate_commands()
+end
+
+local rate = tonumber(ARGV[2])
+local time = redis.call('time')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+
+local tail = tonumber(redis.call('get', KEYS[1]) or '0')
+local count = tonumber(redis.call('hget', KEYS[2], 'count') or '0')
+local ts = tonumber(redis.call('hget', KEYS[2], 'ts') or '0')
+
+-- 1. 所有人都已放行，队列空闲期间不累积放行额度，并移出排队中的优惠券
+if count >= tail then
+    redis.call('hset', KEYS[2], 'ts', now)
+    redis.call('expire', KEYS[2], ARGV[3])
+    redis.call('srem', KEYS[3], ARGV[1])
+    return 0
+end
+
+-- 2. 按距上次放行的时间计算本次可放行的人数
+if ts == 0 then
+    ts = now
+end
+local quota = math.floor((now - ts) * rate / 1000)
+if quota <= 0 then
+    redis.call('hset', KEYS[2], 'ts', ts)
+    return 0
+end
+
+-- 3. 推进放行进度，额度用完时只推进对应的时间，保留不足一人的部分
+local released = math.min(quota, tail - count)
+if released == quota then
+    ts = ts + released * 1000 / rate
+else
+    ts = now
+end
+redis.call('hset', KEYS[2], 'count', count + released)
+redis.call('hset', KEYS[2], 'ts', ts)
+redis.call('expire', KEYS[2], ARGV[3])
+return released
@@ -0,0 +1,48 @@
+-- 回滚秒杀资格：归还Redis库存，移除购买记录，每个订单只回滚一次
+-- ARGV 每6个一组：订单id，优惠券id，用户id，一人一单去重方式，库存分片数，下单日期yyyyMMdd
+-- 返回实际回滚的订单数
+
+local rolled = 0
+for i = 1, #ARGV, 6 do
+    local orderId = ARGV[i]
+    local voucherId = ARGV[i + 1]
+    local userId = ARGV[i + 2]
+    local dedupMode = tonumber(ARGV[i + 3])
+    local stockShards = tonumber(ARGV[i + 4])
+    local day = ARGV[i + 5]
+
+    -- 1. 回滚标记，任务重试或消息重复时不会重复归还库存
+    if (redis.call('set', 'seckill:rollback:' .. orderId, '1', 'NX', 'EX', 86400)) then
+        -- 2. 移除购买记录，用户可以再次下单
+        local orderKey = "seckill:order:" .. voucherId
+        local uid = tonumber(userId)
+        if (dedupMode == 1) then
+            redis.call('setbit', orderKey .. ":bm", uid, 0)
+        elseif (dedupMode == 2) then
+            redis.call('setbit', orderKey .. ":bm:" .. math.floor(uid / 65536), uid % 65536, 0)
+        elseif (dedupMode == 3) then
+            -- 购买数量减一，当天的计数已过期时不再处理
+            local countKey = orderKey .. ":cnt"
+            if (redis.call('hincrby', countKey, userId, -1) <= 0) then
+                redis.call('hdel', countKey, userId)
+            end
+            local dailyCountKey = countKey .. ":" .. day
+            if (redis.call('exists', dailyCountKey) == 1 and redis.call('hincrby', dailyCountKey, userId, -1) <= 0) then
+                redis.call('hdel', dailyCountKey, userId)
+            end
+        else
+            redis.call('srem', orderKey, userId)
+        end
+
+        -- 3. 归还库存，库存key不存在说明Redis数据丢失，由预热从数据库重新加载
+        local stockKey = "seckill:stock:" .. voucherId
+        if (stockShards > 1) then
+            stockKey = stockKey .. ":" .. (uid % stockShards)
+        end
+        if (redis.call('exists', stockKey) == 1) then
+            redis.call('incrby', stockKey, 1)
+        end
+        rolled = rolled + 1
+    end
+end
+return rolled
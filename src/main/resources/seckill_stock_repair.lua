@@ -0,0 +1,63 @@
+-- 对账修复秒杀库存：读取后库存被并发扣减或归还时跳过，否则按差值增减，不会覆盖并发的扣减
+-- ARGV 每4个一组：优惠券id，库存分片数，对账时读到的库存（-1表示未加载），修复后的目标库存
+-- 返回每张券修复后的库存变化量，读取后被并发修改而跳过时为false
+
+local results = {}
+for i = 1, #ARGV, 4 do
+    local voucherId = ARGV[i]
+    local stockShards = tonumber(ARGV[i + 1])
+    local observed = tonumber(ARGV[i + 2])
+    local target = tonumber(ARGV[i + 3])
+
+    -- 1. 读取各分片的当前库存
+    local keys = {}
+    if (stockShards > 1) then
+        for s = 0, stockShards - 1 do
+            keys[#keys + 1] = "seckill:stock:" .. voucherId .. ":" .. s
+        end
+    else
+        keys[1] = "seckill:stock:" .. voucherId
+    end
+    local values = {}
+    local current = 0
+    local loaded = false
+    for s, key in ipairs(keys) do
+        local value = tonumber(redis.call('get', key))
+        if (value) then
+            loaded = true
+            current = current + value
+        end
+        values[s] = value or 0
+    end
+
+    -- 2. 与对账时读到的库存比较，不一致说明期间有扣减或归还，本轮不修复
+    if ((loaded and current ~= observed) or (not loaded and observed ~= -1)) then
+        results[#results + 1] = false
+    else
+        -- 3. 按差值修改，增加时平均分到各分片，减少时依次从各分片扣除
+        local delta = target - current
+        local n = #keys
+        if (delta >= 0) then
+            local base = math.floor(delta / n)
+            local remainder = delta % n
+            for s, key in ipairs(keys) do
+                local share = base
+                if (s <= remainder) then
+                    share = share + 1
+                end
+                redis.call('incrby', key, share)
+            end
+        else
+            local remaining = -delta
+            for s, key in ipairs(keys) do
+                local take = math.min(math.max(values[s], 0), remaining)
+                if (take > 0) then
+                    redis.call('decrby', key, take)
+                    remaining = remaining - take
+                end
+            end
+        end
+        results[#results + 1] = delta
+    end
+end
+return results
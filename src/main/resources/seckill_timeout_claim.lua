@@ -0,0 +1,14 @@
+-- 认领到期未支付的订单，认领后推迟到期时间而不是删除，处理节点宕机时订单会再次到期被其它节点处理
+-- KEYS[1] 订单超时zset，member为 订单id:优惠券id:用户id，score为到期时间
+-- ARGV[1] 当前时间 ARGV[2] 最多认领的数量 ARGV[3] 认领后推迟的毫秒数
+-- 返回认领到的订单
+
+local now = tonumber(ARGV[1])
+-- 1. 取出已到期的订单 ZRANGEBYSCORE key -inf now LIMIT 0 n
+local due = redis.call('zrangebyscore', KEYS[1], '-inf', now, 'LIMIT', 0, tonumber(ARGV[2]))
+-- 2. 推迟到期时间，其它节点不会重复认领
+local retryAt = now + tonumber(ARGV[3])
+for _, member in ipairs(due) do
+    redis.call('zadd', KEYS[1], retryAt, member)
+end
+return due
@@ -1,7 +1,19 @@
--- 比较线程标识是否与锁的值一致
-if (redis.call('get', KEYS[1]) == ARGV[1]) then
-    -- 一致，删除锁
-    return redis.call('del', KEYS[1])
+-- 释放可重入锁
+-- KEYS[1] 锁的key
+-- ARGV[1] 持有者标识，ARGV[2] 锁的有效期，单位毫秒，ARGV[3] 释放通知的频道
+-- 返回-1：不是自己持有的锁；0：重入次数减一，仍持有；1：已释放
+
+-- 1. 判断是否是自己持有的锁
+if (redis.call('hexists', KEYS[1], ARGV[1]) == 0) then
+    return -1
 end
--- 不一致，返回0
-return 0
+-- 2. 重入次数-1，仍大于0时重置有效期
+local count = redis.call('hincrby', KEYS[1], ARGV[1], -1)
+if (count > 0) then
+    redis.call('pexpire', KEYS[1], ARGV[2])
+    return 0
+end
+-- 3. 删除锁，并通知等待的线程
+redis.call('del', KEYS[1])
+redis.call('publish', ARGV[3], KEYS[1])
+return 1
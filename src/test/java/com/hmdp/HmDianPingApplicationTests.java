@@ -1,13 +1,78 @@
 package com.hmdp;
 
+import cn.hutool.core.thread.ThreadUtil;
+import cn.hutool.core.util.BooleanUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.SeckillOrderResult;
+import com.hmdp.dto.SeckillQueueStatus;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IShopService;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.ILock;
+import com.hmdp.utils.LocalRateLimiter;
+import com.hmdp.utils.LockMonitor;
+import com.hmdp.utils.RateLimit;
+import com.hmdp.utils.RedisBloomFilter;
+import com.hmdp.utils.RedisCacheClient;
+import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.RedisLockClient;
+import com.hmdp.utils.RedisRateLimiter;
+import com.hmdp.utils.SeckillDedupUtils;
+import com.hmdp.utils.SeckillResultRegistry;
+import com.hmdp.utils.SeckillSoldOutRegistry;
+import com.hmdp.utils.SeckillStockUtils;
+import com.hmdp.utils.SeckillUserLock;
+import com.hmdp.utils.SeckillWaitingRoom;
+import com.hmdp.utils.SimpleRedisLock;
+import com.hmdp.utils.SnowflakeIdWorker;
+import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.TtlJitter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.test.util.AopTestUtils;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
 
 @SpringBootTest
 class HmDianPingApplicationTests {
@@ -15,28 +80,1160 @@ class HmDianPingApplicationTests {
     @Resource
     private RedisIdWorker redisIdWorker;
 
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisRateLimiter redisRateLimiter;
+
+    @Resource
+    private LocalRateLimiter localRateLimiter;
+
+    @Resource
+    private SeckillUserLock seckillUserLock;
+
+    @Resource
+    private RedisLockClient redisLockClient;
+
+    @Resource
+    private LockMonitor lockMonitor;
+
+    @Resource
+    private RedisCacheClient cacheClient;
+
+    @Resource
+    private IShopService shopService;
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @Resource
+    private TransactionTemplate transactionTemplate;
+
+    /**
+     * 测试专用的店铺布隆过滤器
+     */
+    private static final String TEST_BLOOM_SHOP_KEY = "bloom:shop:test:";
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @Resource
+    private TtlJitter ttlJitter;
+
+    @Resource
+    private SeckillSoldOutRegistry seckillSoldOutRegistry;
+
+    @Resource
+    private SeckillResultRegistry seckillResultRegistry;
+
+    @Resource
+    private SeckillWaitingRoom seckillWaitingRoom;
+
+    @Value("${hmdp.seckill.sold-out-ttl-ms:3000}")
+    private long soldOutTtlMs;
+
+    private static final DefaultRedisScript<List> SECKILL_SCRIPT;
+
+    static {
+        SECKILL_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
+        SECKILL_SCRIPT.setResultType(List.class);
+    }
+
     private ExecutorService executorService = Executors.newFixedThreadPool(500);
 
+    /**
+     * id生成器多线程唯一性和吞吐量测试，分别测试当前配置的RedisIdWorker和本地雪花算法
+     */
     @Test
     void testIdWorker() throws InterruptedException {
-//        long order = redisIdWorker.nextId("order");
-//        System.out.println("id = " + order);
-        CountDownLatch latch = new CountDownLatch(300);
+        SnowflakeIdWorker snowflakeIdWorker = new SnowflakeIdWorker(stringRedisTemplate);
+        try {
+            assertUniqueIds("redisIdWorker", () -> redisIdWorker.nextId("order"), 300, 100);
+            assertUniqueIds("snowflakeIdWorker", snowflakeIdWorker::nextId, 300, 10000);
+
+            // 从id中解析出的生成时间与当前时间相差不超过1秒（Redis策略精度为秒）
+            long now = System.currentTimeMillis();
+            Assertions.assertTrue(Math.abs(redisIdWorker.timestampMillis(redisIdWorker.nextId("order")) - now) <= 1000);
+            Assertions.assertTrue(Math.abs(SnowflakeIdWorker.timestampMillis(snowflakeIdWorker.nextId()) - now) <= 1000);
+        } finally {
+            snowflakeIdWorker.shutdown();
+        }
+    }
+
+    private void assertUniqueIds(String name, LongSupplier idSupplier, int threads, int perThread) throws InterruptedException {
+        Set<Long> ids = ConcurrentHashMap.newKeySet(threads * perThread);
+        CountDownLatch latch = new CountDownLatch(threads);
 
         Runnable task = () -> {
-            for (int i = 0; i < 100; i++) {
-                long id = redisIdWorker.nextId("order");
-                System.out.println("id = " + id);
+            long[] local = new long[perThread];
+            for (int i = 0; i < perThread; i++) {
+                local[i] = idSupplier.getAsLong();
+            }
+            for (long id : local) {
+                ids.add(id);
             }
             latch.countDown();
         };
 
         long begin = System.currentTimeMillis();
-        for (int i = 0; i < 300; i++) {
+        for (int i = 0; i < threads; i++) {
             executorService.submit(task);
         }
         latch.await();
-        long end = System.currentTimeMillis();
-        System.out.println("time = " + (end - begin));
+        long cost = System.currentTimeMillis() - begin;
+        System.out.println(name + ": ids = " + threads * perThread + ", time = " + cost
+                + "ms, qps = " + threads * perThread * 1000L / Math.max(1, cost));
+        Assertions.assertEquals(threads * perThread, ids.size(), name + " 生成了重复的id");
+    }
+
+    /**
+     * 秒杀库存分片压测，对比1个分片与8个分片的Lua下单吞吐量，请求数多于库存，验证分片售罄后回退到其它分片且不超卖
+     * 使用独立的优惠券id和消息队列，不影响正式数据
+     */
+    @Test
+    void testStockShardsThroughput() throws InterruptedException {
+        for (int stockShards : new int[]{1, 8}) {
+            long voucherId = 900000000L + stockShards;
+            String streamKey = "stream.orders.bench";
+            int stock = 15000;
+            stringRedisTemplate.delete(streamKey);
+            String[] stockKeys = SeckillStockUtils.stockKeys(voucherId, stockShards);
+            int[] shares = SeckillStockUtils.splitStock(stock, stockShards);
+            for (int i = 0; i < stockShards; i++) {
+                stringRedisTemplate.opsForValue().set(stockKeys[i], String.valueOf(shares[i]));
+            }
+
+            int threads = 200;
+            int perThread = 100;
+            AtomicInteger success = new AtomicInteger();
+            CountDownLatch latch = new CountDownLatch(threads);
+            long begin = System.currentTimeMillis();
+            for (int t = 0; t < threads; t++) {
+                int base = t * perThread;
+                executorService.submit(() -> {
+                    for (int i = 0; i < perThread; i++) {
+                        String userId = String.valueOf(base + i);
+                        List<?> r = seckill(streamKey, userId, "0",
+                                String.valueOf(voucherId), userId, String.valueOf(stockShards), "0", "1", "0");
+                        if (((Long) r.get(0)) == 0) {
+                            success.incrementAndGet();
+                        }
+                    }
+                    latch.countDown();
+                });
+            }
+            latch.await();
+            long cost = System.currentTimeMillis() - begin;
+            System.out.println("stockShards = " + stockShards + ", requests = " + threads * perThread
+                    + ", time = " + cost + "ms, qps = " + threads * perThread * 1000L / Math.max(1, cost));
+
+            // 库存全部卖完，各分片都不为负，订单消息数与成功数都等于库存
+            Assertions.assertEquals(stock, success.get());
+            Assertions.assertEquals(Long.valueOf(stock), stringRedisTemplate.opsForStream().size(streamKey));
+            for (String key : stockKeys) {
+                Assertions.assertEquals("0", stringRedisTemplate.opsForValue().get(key));
+            }
+
+            stringRedisTemplate.delete(Arrays.asList(stockKeys));
+            stringRedisTemplate.delete(Arrays.asList(RedisConstants.SECKILL_ORDER_KEY + voucherId,
+                    RedisConstants.SECKILL_RESULT_KEY + voucherId, streamKey));
+        }
+    }
+
+    /**
+     * 每人限购测试，每人最多3件且每天最多2件，第3次返回5，数量计数与库存在同一次Lua调用中更新
+     */
+    @Test
+    void testPurchaseLimit() {
+        long voucherId = 920000000L;
+        String streamKey = "stream.orders.bench";
+        String day = SeckillDedupUtils.day(LocalDate.now());
+        stringRedisTemplate.opsForValue().set(RedisConstants.SECKILL_STOCK_KEY + voucherId, "100");
+        long[] expected = {0, 0, 5};
+        for (int i = 0; i < expected.length; i++) {
+            List<?> r = seckill(streamKey, "1", "0", String.valueOf(voucherId), String.valueOf(i), "1",
+                    String.valueOf(SeckillDedupUtils.DEDUP_COUNTER), "3", "2");
+            Assertions.assertEquals(expected[i], r.get(0));
+        }
+        Assertions.assertEquals("2", stringRedisTemplate.opsForHash().get(SeckillDedupUtils.countKey(voucherId), "1"));
+        Assertions.assertEquals("98", stringRedisTemplate.opsForValue().get(RedisConstants.SECKILL_STOCK_KEY + voucherId));
+
+        stringRedisTemplate.delete(Arrays.asList(RedisConstants.SECKILL_STOCK_KEY + voucherId,
+                SeckillDedupUtils.countKey(voucherId), SeckillDedupUtils.dailyCountKey(voucherId, day),
+                RedisConstants.SECKILL_RESULT_KEY + voucherId, streamKey));
+    }
+
+    /**
+     * 批量秒杀测试，一张有库存一张售罄，全部成功模式下都不下单，尽力而为模式下有库存的下单
+     */
+    @Test
+    void testBatchSeckill() {
+        long available = 930000001L;
+        long soldOut = 930000002L;
+        String streamKey = "stream.orders.bench";
+        stringRedisTemplate.opsForValue().set(RedisConstants.SECKILL_STOCK_KEY + available, "10");
+        stringRedisTemplate.opsForValue().set(RedisConstants.SECKILL_STOCK_KEY + soldOut, "0");
+        String[] vouchers = {
+                String.valueOf(available), "1", "1", "0", "1", "0",
+                String.valueOf(soldOut), "2", "1", "0", "1", "0"
+        };
+
+        Assertions.assertEquals(Arrays.asList(6L, 1L), seckill(streamKey, "1", "0", vouchers));
+        Assertions.assertEquals("10", stringRedisTemplate.opsForValue().get(RedisConstants.SECKILL_STOCK_KEY + available));
+
+        Assertions.assertEquals(Arrays.asList(0L, 1L), seckill(streamKey, "1", "1", vouchers));
+        Assertions.assertEquals("9", stringRedisTemplate.opsForValue().get(RedisConstants.SECKILL_STOCK_KEY + available));
+        Assertions.assertEquals(1L, stringRedisTemplate.opsForStream().size(streamKey));
+
+        for (long voucherId : new long[]{available, soldOut}) {
+            stringRedisTemplate.delete(Arrays.asList(RedisConstants.SECKILL_STOCK_KEY + voucherId,
+                    RedisConstants.SECKILL_ORDER_KEY + voucherId, RedisConstants.SECKILL_RESULT_KEY + voucherId));
+        }
+        stringRedisTemplate.delete(streamKey);
+    }
+
+    /**
+     * 同一用户1000个并发秒杀请求，本地用户锁串行执行，Lua脚本判断一人一单，只能下一单
+     */
+    @Test
+    void testSeckillUserLock() throws InterruptedException {
+        long voucherId = 940000001L;
+        String streamKey = "stream.orders.bench";
+        Long userId = 1L;
+        stringRedisTemplate.opsForValue().set(RedisConstants.SECKILL_STOCK_KEY + voucherId, "100");
+
+        int requests = 1000;
+        AtomicInteger ordered = new AtomicInteger();
+        AtomicInteger duplicated = new AtomicInteger();
+        AtomicInteger busy = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch latch = new CountDownLatch(requests);
+        for (int i = 0; i < requests; i++) {
+            String orderId = String.valueOf(i);
+            executorService.submit(() -> {
+                try {
+                    start.await();
+                    try (SeckillUserLock.Holder holder = seckillUserLock.tryLock(userId)) {
+                        if (holder == null) {
+                            busy.incrementAndGet();
+                            return;
+                        }
+                        List<?> r = seckill(streamKey, userId.toString(), "0",
+                                String.valueOf(voucherId), orderId, "1", "0", "1", "0");
+                        if (((Long) r.get(0)) == 0) {
+                            ordered.incrementAndGet();
+                        } else {
+                            duplicated.incrementAndGet();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+        start.countDown();
+        latch.await();
+        System.out.println("ordered = " + ordered + ", duplicated = " + duplicated + ", busy = " + busy);
+
+        Assertions.assertEquals(1, ordered.get());
+        Assertions.assertEquals(requests, ordered.get() + duplicated.get() + busy.get());
+        Assertions.assertEquals("99", stringRedisTemplate.opsForValue().get(RedisConstants.SECKILL_STOCK_KEY + voucherId));
+        Assertions.assertEquals(1L, stringRedisTemplate.opsForStream().size(streamKey));
+
+        stringRedisTemplate.delete(Arrays.asList(RedisConstants.SECKILL_STOCK_KEY + voucherId,
+                RedisConstants.SECKILL_ORDER_KEY + voucherId, RedisConstants.SECKILL_RESULT_KEY + voucherId, streamKey));
+    }
+
+    /**
+     * 分布式锁测试，先验证可重入，再压测竞争同一把锁时的获取延迟
+     * 对比 SET NX + sleep(50) 轮询与等待释放通知两种方式
+     */
+    @Test
+    void testRedisLock() throws InterruptedException {
+        // 1. 可重入，释放相同次数后删除
+        String reentrantKey = SimpleRedisLock.KEY_PREFIX + "bench:reentrant";
+        ILock reentrant = redisLockClient.getLock("bench:reentrant");
+        Assertions.assertTrue(reentrant.tryLock(1, TimeUnit.SECONDS));
+        Assertions.assertTrue(reentrant.tryLock(1, TimeUnit.SECONDS));
+        reentrant.unlock();
+        Assertions.assertEquals(Boolean.TRUE, stringRedisTemplate.hasKey(reentrantKey));
+        Assertions.assertTrue(lockMonitor.holders().stream().anyMatch(h -> h.getKey().equals(reentrantKey)));
+        reentrant.unlock();
+        Assertions.assertEquals(Boolean.FALSE, stringRedisTemplate.hasKey(reentrantKey));
+        Assertions.assertTrue(lockMonitor.holders().stream().noneMatch(h -> h.getKey().equals(reentrantKey)));
+
+        // 2. 轮询
+        String pollingKey = SimpleRedisLock.KEY_PREFIX + "bench:polling";
+        benchmarkLock("polling", () -> {
+            long deadline = System.currentTimeMillis() + 10000;
+            while (System.currentTimeMillis() < deadline) {
+                if (BooleanUtil.isTrue(stringRedisTemplate.opsForValue().setIfAbsent(pollingKey, "1", 5, TimeUnit.SECONDS))) {
+                    return true;
+                }
+                ThreadUtil.sleep(50);
+            }
+            return false;
+        }, () -> stringRedisTemplate.delete(pollingKey));
+
+        // 3. 等待释放通知
+        ILock lock = redisLockClient.getLock("bench:pubsub");
+        benchmarkLock("pubsub", () -> lock.tryLock(10, TimeUnit.SECONDS), lock::unlock);
+    }
+
+    /**
+     * 20个线程竞争同一把锁，每个线程获取20次，每次持有2ms，统计获取锁的平均和p99延迟
+     */
+    private void benchmarkLock(String name, BooleanSupplier acquire, Runnable release) throws InterruptedException {
+        int threads = 20;
+        int rounds = 20;
+        long[] latencies = new long[threads * rounds];
+        AtomicInteger index = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            executorService.submit(() -> {
+                try {
+                    for (int r = 0; r < rounds; r++) {
+                        long begin = System.nanoTime();
+                        if (!acquire.getAsBoolean()) {
+                            failed.incrementAndGet();
+                            continue;
+                        }
+                        latencies[index.getAndIncrement()] = System.nanoTime() - begin;
+                        ThreadUtil.sleep(2);
+                        release.run();
+                    }
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+        latch.await();
+        long[] acquired = Arrays.copyOf(latencies, index.get());
+        Arrays.sort(acquired);
+        long avg = (long) Arrays.stream(acquired).average().orElse(0);
+        long p99 = acquired.length == 0 ? 0 : acquired[Math.min(acquired.length - 1, (int) (acquired.length * 0.99))];
+        System.out.println(name + ": acquired = " + acquired.length + ", failed = " + failed
+                + ", avg = " + TimeUnit.NANOSECONDS.toMicros(avg) + "us, p99 = " + TimeUnit.NANOSECONDS.toMicros(p99) + "us");
+        Assertions.assertEquals(0, failed.get());
+    }
+
+    /**
+     * 缓存客户端测试，100个线程同时查询未缓存的数据，互斥重建只查一次数据库；不存在的数据缓存空值
+     */
+    @Test
+    void testCacheClient() throws InterruptedException {
+        String keyPrefix = "cache:bench:";
+        AtomicInteger dbQueries = new AtomicInteger();
+        Function<Long, Map<String, Object>> dbFallback = id -> {
+            dbQueries.incrementAndGet();
+            ThreadUtil.sleep(20);
+            return id > 0 ? Collections.singletonMap("id", id) : null;
+        };
+        stringRedisTemplate.delete(Arrays.asList(keyPrefix + 1, keyPrefix + 0));
+
+        int threads = 100;
+        AtomicInteger hits = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            executorService.submit(() -> {
+                try {
+                    if (cacheClient.queryWithMutex(keyPrefix, 1L, Map.class, dbFallback::apply, 1L, TimeUnit.MINUTES) != null) {
+                        hits.incrementAndGet();
+                    }
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+        latch.await();
+        Assertions.assertEquals(threads, hits.get());
+        Assertions.assertEquals(1, dbQueries.get());
+
+        // 不存在的数据只查一次数据库
+        Assertions.assertNull(cacheClient.queryWithPassThrough(keyPrefix, 0L, Map.class, dbFallback::apply, 1L, TimeUnit.MINUTES));
+        Assertions.assertNull(cacheClient.queryWithPassThrough(keyPrefix, 0L, Map.class, dbFallback::apply, 1L, TimeUnit.MINUTES));
+        Assertions.assertEquals(2, dbQueries.get());
+
+        stringRedisTemplate.delete(Arrays.asList(keyPrefix + 1, keyPrefix + 0));
+    }
+
+    /**
+     * 逻辑过期测试，缓存过期后100个线程同时查询，全部立即返回旧数据，只有一个线程异步重建
+     */
+    @Test
+    void testCacheLogicalExpire() throws InterruptedException {
+        String keyPrefix = "cache:bench:hot:";
+        AtomicInteger dbQueries = new AtomicInteger();
+        Function<Long, Map<String, Object>> dbFallback = id -> {
+            dbQueries.incrementAndGet();
+            ThreadUtil.sleep(200);
+            return Collections.singletonMap("version", 2);
+        };
+        // 写入已过期的旧数据
+        cacheClient.setWithLogicalExpire(keyPrefix + 1, Collections.singletonMap("version", 1), -1L, TimeUnit.SECONDS);
+
+        int threads = 100;
+        AtomicInteger stale = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(threads);
+        long begin = System.currentTimeMillis();
+        for (int t = 0; t < threads; t++) {
+            executorService.submit(() -> {
+                try {
+                    Map<?, ?> r = cacheClient.queryWithLogicalExpire(keyPrefix, 1L, Map.class, dbFallback::apply, 1L, TimeUnit.MINUTES);
+                    if (r != null && Integer.valueOf(1).equals(r.get("version"))) {
+                        stale.incrementAndGet();
+                    }
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+        latch.await();
+        long cost = System.currentTimeMillis() - begin;
+        System.out.println("stale = " + stale + ", time = " + cost + "ms");
+        // 重建耗时200ms，读请求没有等待重建
+        Assertions.assertEquals(threads, stale.get());
+        Assertions.assertTrue(cost < 200);
+
+        // 等待重建完成
+        for (int i = 0; i < 50 && dbQueries.get() == 0; i++) {
+            ThreadUtil.sleep(20);
+        }
+        ThreadUtil.sleep(300);
+        Map<?, ?> rebuilt = cacheClient.queryWithLogicalExpire(keyPrefix, 1L, Map.class, dbFallback::apply, 1L, TimeUnit.MINUTES);
+        Assertions.assertEquals(2, rebuilt.get("version"));
+        Assertions.assertEquals(1, dbQueries.get());
+
+        stringRedisTemplate.delete(keyPrefix + 1);
+    }
+
+    /**
+     * 店铺两级缓存压测，对比只查Redis（查询+反序列化）与本地缓存命中的延迟，并验证更新后本地缓存被清除
+     * 使用测试时新增的店铺和测试专用的布隆过滤器，结束后删除，不修改已有店铺
+     */
+    @Test
+    void testShopLocalCache() throws InterruptedException {
+        RedisBloomFilter testBloomFilter = newTestBloomFilter();
+        RedisBloomFilter original = swapShopBloomFilter(testBloomFilter);
+        Shop shop = new Shop();
+        shop.setName("本地缓存测试店铺");
+        shop.setTypeId(1L);
+        shop.setImages("");
+        shop.setAddress("测试地址");
+        shop.setX(120.0);
+        shop.setY(30.0);
+        shop.setSold(0);
+        shop.setComments(0);
+        shop.setScore(0);
+        shopService.saveShop(shop);
+        Long shopId = shop.getId();
+        try {
+            Assertions.assertTrue(shopService.queryById(shopId).getSuccess());
+
+            long redisNanos = benchmarkQuery("redis", () -> cacheClient.queryWithMutex(RedisConstants.CACHE_SHOP_KEY, shopId,
+                    Shop.class, shopService::getById, RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES));
+            long localNanos = benchmarkQuery("local", () -> shopService.queryById(shopId));
+            Assertions.assertTrue(localNanos < redisNanos);
+
+            // 更新后本地缓存被清除，下次查询未命中本地缓存
+            double misses = localCacheMisses();
+            shop.setName("本地缓存测试店铺2");
+            shopService.update(shop);
+            ThreadUtil.sleep(200);
+            Assertions.assertTrue(shopService.queryById(shopId).getSuccess());
+            Assertions.assertEquals(misses + 1, localCacheMisses());
+        } finally {
+            shopService.removeById(shopId);
+            stringRedisTemplate.delete(Arrays.asList(RedisConstants.CACHE_SHOP_KEY + shopId,
+                    RedisConstants.CACHE_SHOP_HOT_KEY + shopId));
+            stringRedisTemplate.convertAndSend(RedisConstants.CACHE_SHOP_EVICT_CHANNEL, shopId.toString());
+            swapShopBloomFilter(original);
+            testBloomFilter.clear();
+        }
+    }
+
+    /**
+     * 热点店铺缓存测试，预热后直接命中逻辑过期缓存，更新后缓存被最新数据覆盖而不是删除，查询不需要等待互斥锁
+     */
+    @Test
+    void testHotShopUpdate() {
+        RedisBloomFilter testBloomFilter = newTestBloomFilter();
+        RedisBloomFilter original = swapShopBloomFilter(testBloomFilter);
+        Object target = AopTestUtils.getTargetObject(shopService);
+        Object hotShopIds = ReflectionTestUtils.getField(target, "hotShopIds");
+        Shop shop = new Shop();
+        shop.setName("热点缓存测试店铺");
+        shop.setTypeId(1L);
+        shop.setImages("");
+        shop.setAddress("测试地址");
+        shop.setX(120.0);
+        shop.setY(30.0);
+        shop.setSold(0);
+        shop.setComments(0);
+        shop.setScore(0);
+        shopService.saveShop(shop);
+        Long shopId = shop.getId();
+        String key = RedisConstants.CACHE_SHOP_HOT_KEY + shopId;
+        try {
+            ReflectionTestUtils.setField(target, "hotShopIds", Collections.singleton(shopId));
+            shopService.preloadHotShops();
+            Assertions.assertNotNull(stringRedisTemplate.opsForValue().get(key));
+
+            shop.setName("热点缓存测试店铺2");
+            shopService.update(shop);
+            String json = stringRedisTemplate.opsForValue().get(key);
+            Assertions.assertNotNull(json);
+            Assertions.assertTrue(json.contains("热点缓存测试店铺2"));
+            ThreadUtil.sleep(200);
+            Assertions.assertEquals("热点缓存测试店铺2", ((Shop) shopService.queryById(shopId).getData()).getName());
+        } finally {
+            ReflectionTestUtils.setField(target, "hotShopIds", hotShopIds);
+            shopService.removeById(shopId);
+            stringRedisTemplate.delete(Arrays.asList(RedisConstants.CACHE_SHOP_KEY + shopId, key));
+            stringRedisTemplate.convertAndSend(RedisConstants.CACHE_SHOP_EVICT_CHANNEL, shopId.toString());
+            swapShopBloomFilter(original);
+            testBloomFilter.clear();
+        }
+    }
+
+    /**
+     * 缓存穿透测试，不存在的店铺依次被布隆过滤器、数据库、本地空值缓存、Redis空值缓存拦截
+     * 使用测试专用的布隆过滤器，模拟误判时加入的id不会留在生产的布隆过滤器中
+     */
+    @Test
+    void testShopPenetration() {
+        Long shopId = 990000001L;
+        String key = RedisConstants.CACHE_SHOP_KEY + shopId;
+        stringRedisTemplate.delete(key);
+        double bloom = penetrationBlocked("bloom");
+        double db = penetrationBlocked("db");
+        double local = penetrationBlocked("local");
+        double redis = redisNullHits();
+
+        RedisBloomFilter testBloomFilter = newTestBloomFilter();
+        RedisBloomFilter original = swapShopBloomFilter(testBloomFilter);
+        try {
+            // 1. 布隆过滤器拦截
+            Assertions.assertFalse(shopService.queryById(shopId).getSuccess());
+            Assertions.assertEquals(bloom + 1, penetrationBlocked("bloom"));
+
+            // 2. 模拟布隆过滤器误判，查数据库后缓存空值
+            testBloomFilter.add(shopId.toString());
+            Assertions.assertFalse(shopService.queryById(shopId).getSuccess());
+            Assertions.assertEquals(db + 1, penetrationBlocked("db"));
+            Assertions.assertEquals("", stringRedisTemplate.opsForValue().get(key));
+
+            // 3. 本地空值缓存拦截
+            Assertions.assertFalse(shopService.queryById(shopId).getSuccess());
+            Assertions.assertEquals(local + 1, penetrationBlocked("local"));
+
+            // 4. 清除本地空值缓存后由Redis空值拦截，不再查数据库
+            stringRedisTemplate.convertAndSend(RedisConstants.CACHE_SHOP_EVICT_CHANNEL, shopId.toString());
+            ThreadUtil.sleep(200);
+            Assertions.assertFalse(shopService.queryById(shopId).getSuccess());
+            Assertions.assertEquals(redis + 1, redisNullHits());
+            Assertions.assertEquals(db + 1, penetrationBlocked("db"));
+        } finally {
+            swapShopBloomFilter(original);
+            testBloomFilter.clear();
+            stringRedisTemplate.delete(key);
+            stringRedisTemplate.convertAndSend(RedisConstants.CACHE_SHOP_EVICT_CHANNEL, shopId.toString());
+        }
+    }
+
+    private RedisBloomFilter newTestBloomFilter() {
+        RedisBloomFilter bloomFilter = new RedisBloomFilter(stringRedisTemplate, TEST_BLOOM_SHOP_KEY, 10000L, 0.0001);
+        bloomFilter.clear();
+        return bloomFilter;
+    }
+
+    /**
+     * 替换店铺服务使用的布隆过滤器
+     * @return 替换前的布隆过滤器，测试结束后换回
+     */
+    private RedisBloomFilter swapShopBloomFilter(RedisBloomFilter bloomFilter) {
+        Object target = AopTestUtils.getTargetObject(shopService);
+        RedisBloomFilter original = (RedisBloomFilter) ReflectionTestUtils.getField(target, "shopBloomFilter");
+        ReflectionTestUtils.setField(target, "shopBloomFilter", bloomFilter);
+        return original;
+    }
+
+    private double redisNullHits() {
+        Counter counter = meterRegistry.find("cache.requests")
+                .tag("cache", RedisConstants.CACHE_SHOP_KEY).tag("result", "null").counter();
+        return counter == null ? 0 : counter.count();
+    }
+
+    private double penetrationBlocked(String layer) {
+        return meterRegistry.get("shop.penetration.blocked").tag("layer", layer).counter().count();
+    }
+
+    private double localCacheMisses() {
+        return meterRegistry.get("cache.gets").tag("cache", "shop.local").tag("result", "miss").functionCounter().count();
+    }
+
+    /**
+     * 50个线程各查询2000次，返回平均延迟
+     */
+    private long benchmarkQuery(String name, Runnable query) throws InterruptedException {
+        int threads = 50;
+        int perThread = 2000;
+        CountDownLatch latch = new CountDownLatch(threads);
+        long begin = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            executorService.submit(() -> {
+                try {
+                    for (int i = 0; i < perThread; i++) {
+                        query.run();
+                    }
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+        latch.await();
+        long cost = System.nanoTime() - begin;
+        long avg = cost * threads / (threads * perThread);
+        System.out.println(name + ": requests = " + threads * perThread + ", time = "
+                + TimeUnit.NANOSECONDS.toMillis(cost) + "ms, avg = " + TimeUnit.NANOSECONDS.toMicros(avg) + "us");
+        return avg;
+    }
+
+    /**
+     * 缓存雪崩模拟，10万个店铺缓存在同一秒预热，对比不加随机和TTL随机延长20%时每秒过期的key数
+     * 热点数据过期后立即被访问，每秒过期的key数即每秒回源数据库的查询数
+     */
+    @Test
+    void testTtlJitter() {
+        int keys = 100000;
+        long ttlMs = TimeUnit.MINUTES.toMillis(RedisConstants.CACHE_SHOP_TTL);
+        double ratio = ttlJitter.ratioOf(RedisConstants.CACHE_SHOP_KEY + 1);
+        Assertions.assertEquals(0.2, ratio);
+
+        int peakWithout = simulateExpiry("without jitter", keys, ttlMs, 0);
+        int peakWith = simulateExpiry("with jitter", keys, ttlMs, ratio);
+        Assertions.assertEquals(keys, peakWithout);
+        Assertions.assertTrue(peakWith < keys / 100);
+
+        // 实际写入的TTL在 [ttl, ttl * 1.2] 之间
+        String key = RedisConstants.CACHE_SHOP_KEY + "bench";
+        cacheClient.set(key, Collections.singletonMap("id", 1), RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        Long expire = stringRedisTemplate.getExpire(key, TimeUnit.MILLISECONDS);
+        Assertions.assertNotNull(expire);
+        Assertions.assertTrue(expire > ttlMs - 1000 && expire <= ttlMs * 1.2);
+        stringRedisTemplate.delete(key);
+    }
+
+    /**
+     * 统计每秒过期的key数，返回峰值
+     */
+    private int simulateExpiry(String name, int keys, long ttlMs, double ratio) {
+        Map<Long, Integer> perSecond = new TreeMap<>();
+        for (int i = 0; i < keys; i++) {
+            long second = TtlJitter.spread(ttlMs, ratio) / 1000;
+            perSecond.merge(second, 1, Integer::sum);
+        }
+        int peak = perSecond.values().stream().max(Integer::compare).orElse(0);
+        System.out.println(name + ": expire seconds = " + perSecond.size() + ", peak db queries/s = " + peak
+                + ", avg db queries/s = " + keys / perSecond.size());
+        return peak;
+    }
+
+    /**
+     * 批量写入订单时数据库库存不足，整批回滚，订单不会在没有扣减库存的情况下保存
+     */
+    @Test
+    void testCreateOrdersStockShortage() {
+        long voucherId = 970000001L;
+        SeckillVoucher voucher = new SeckillVoucher();
+        voucher.setVoucherId(voucherId);
+        voucher.setStock(1);
+        voucher.setBeginTime(LocalDateTime.now().minusDays(1));
+        voucher.setEndTime(LocalDateTime.now().plusDays(1));
+        seckillVoucherService.save(voucher);
+        List<VoucherOrder> orders = new ArrayList<>();
+        for (long userId = 1; userId <= 2; userId++) {
+            VoucherOrder order = new VoucherOrder();
+            order.setId(redisIdWorker.nextId("order"));
+            order.setUserId(userId);
+            order.setVoucherId(voucherId);
+            orders.add(order);
+        }
+        try {
+            Assertions.assertThrows(IllegalStateException.class, () -> voucherOrderService.createVoucherOrders(orders));
+            Assertions.assertEquals(0, voucherOrderService.query().eq("voucher_id", voucherId).count());
+            Assertions.assertEquals(1, seckillVoucherService.getById(voucherId).getStock());
+
+            // 单条重试时库存足够的订单正常写入
+            Assertions.assertEquals(1, voucherOrderService.createVoucherOrders(orders.subList(0, 1)).size());
+            Assertions.assertEquals(0, seckillVoucherService.getById(voucherId).getStock());
+        } finally {
+            voucherOrderService.remove(new QueryWrapper<VoucherOrder>().eq("voucher_id", voucherId));
+            seckillVoucherService.removeById(voucherId);
+        }
+    }
+
+    /**
+     * 异步下单测试，Lua脚本放入消息队列的订单由后台线程攒批写入数据库，写入后全部确认，数据库库存按实际写入数扣减
+     */
+    @Test
+    void testAsyncOrderBatching() {
+        long voucherId = 980000001L;
+        int orders = 250;
+        saveTestSeckillVoucher(voucherId, orders);
+        DistributionSummary batchSize = meterRegistry.get("seckill.order.batch.size").summary();
+        long batchesBefore = batchSize.count();
+        try {
+            for (int userId = 1; userId <= orders; userId++) {
+                List<?> r = seckill(RedisConstants.SECKILL_ORDER_STREAM_KEY, String.valueOf(userId), "0",
+                        String.valueOf(voucherId), String.valueOf(redisIdWorker.nextId("order")), "1", "0", "1", "0");
+                Assertions.assertEquals(0L, r.get(0));
+            }
+            Assertions.assertTrue(awaitCondition(
+                    () -> voucherOrderService.query().eq("voucher_id", voucherId).count() == orders, 10000));
+            Assertions.assertEquals(0, seckillVoucherService.getById(voucherId).getStock());
+            // 攒批写入，批次数远少于订单数
+            long batches = batchSize.count() - batchesBefore;
+            System.out.println("orders = " + orders + ", batches = " + batches);
+            Assertions.assertTrue(batches < orders / 10);
+            // 写入后全部确认，pending-list中没有残留
+            Assertions.assertTrue(awaitCondition(() -> stringRedisTemplate.opsForStream()
+                    .pending(RedisConstants.SECKILL_ORDER_STREAM_KEY, RedisConstants.SECKILL_ORDER_GROUP)
+                    .getTotalPendingMessages() == 0, 2000));
+        } finally {
+            removeTestSeckillVoucher(voucherId);
+        }
+    }
+
+    /**
+     * 其它消费者宕机后未确认的订单消息，超过空闲时间后被认领并写入数据库
+     */
+    @Test
+    void testClaimIdlePending() {
+        long voucherId = 980000002L;
+        String deadConsumer = "test-dead-consumer";
+        saveTestSeckillVoucher(voucherId, 10);
+        Object target = AopTestUtils.getTargetObject(voucherOrderService);
+        Object claimIdleMs = ReflectionTestUtils.getField(target, "claimIdleMs");
+        long orderId = redisIdWorker.nextId("order");
+        try {
+            // 1. 订单消息投递给一个之后不再确认的消费者，XADD和XREADGROUP在同一个脚本中执行，不会被后台线程先读走
+            DefaultRedisScript<String> deliverScript = new DefaultRedisScript<>(
+                    "local id = redis.call('xadd', KEYS[1], '*', 'userId', ARGV[3], 'voucherId', ARGV[4], 'id', ARGV[5]) "
+                            + "redis.call('xreadgroup', 'GROUP', ARGV[1], ARGV[2], 'STREAMS', KEYS[1], '>') "
+                            + "return id", String.class);
+            stringRedisTemplate.execute(deliverScript, Collections.singletonList(RedisConstants.SECKILL_ORDER_STREAM_KEY),
+                    RedisConstants.SECKILL_ORDER_GROUP, deadConsumer, "1", String.valueOf(voucherId), String.valueOf(orderId));
+            Assertions.assertNull(voucherOrderService.getById(orderId));
+
+            // 2. 空闲超过 claimIdleMs 后认领到本节点并处理
+            ReflectionTestUtils.setField(target, "claimIdleMs", 100L);
+            ThreadUtil.sleep(200);
+            Integer claimed = ReflectionTestUtils.invokeMethod(target, "claimIdlePending");
+            Assertions.assertNotNull(claimed);
+            Assertions.assertTrue(claimed >= 1);
+            ReflectionTestUtils.invokeMethod(target, "handlePendingList");
+
+            Assertions.assertNotNull(voucherOrderService.getById(orderId));
+            Assertions.assertEquals(0, stringRedisTemplate.opsForStream().pending(RedisConstants.SECKILL_ORDER_STREAM_KEY,
+                    Consumer.from(RedisConstants.SECKILL_ORDER_GROUP, deadConsumer), Range.unbounded(), 10).size());
+        } finally {
+            ReflectionTestUtils.setField(target, "claimIdleMs", claimIdleMs);
+            stringRedisTemplate.opsForStream().deleteConsumer(RedisConstants.SECKILL_ORDER_STREAM_KEY,
+                    Consumer.from(RedisConstants.SECKILL_ORDER_GROUP, deadConsumer));
+            removeTestSeckillVoucher(voucherId);
+        }
+    }
+
+    /**
+     * 毒消息隔离，数据库库存不足的订单每次写入都失败，投递 MAX_DELIVERIES 次后标记失败、回滚Redis资格并确认，不再阻塞消息队列
+     */
+    @Test
+    void testPoisonMessageIsolation() {
+        long voucherId = 980000003L;
+        saveTestSeckillVoucher(voucherId, 1);
+        // Redis有库存而数据库没有，模拟两边库存不一致
+        seckillVoucherService.update().set("stock", 0).eq("voucher_id", voucherId).update();
+        long orderId = redisIdWorker.nextId("order");
+        try {
+            List<?> r = seckill(RedisConstants.SECKILL_ORDER_STREAM_KEY, "1", "0",
+                    String.valueOf(voucherId), String.valueOf(orderId), "1", "0", "1", "0");
+            Assertions.assertEquals(0L, r.get(0));
+            Assertions.assertEquals("0", stringRedisTemplate.opsForValue().get(RedisConstants.SECKILL_STOCK_KEY + voucherId));
+
+            // 多次重试后标记失败，下单结果不再是排队中
+            Assertions.assertTrue(awaitCondition(() -> ("1:" + SeckillOrderResult.FAILED).equals(stringRedisTemplate.opsForHash()
+                    .get(RedisConstants.SECKILL_RESULT_KEY + voucherId, String.valueOf(orderId))), 10000));
+            // 订单没有写入，Redis库存和购买资格已回滚，消息已确认
+            Assertions.assertNull(voucherOrderService.getById(orderId));
+            Assertions.assertEquals("1", stringRedisTemplate.opsForValue().get(RedisConstants.SECKILL_STOCK_KEY + voucherId));
+            Assertions.assertFalse(stringRedisTemplate.opsForSet().isMember(RedisConstants.SECKILL_ORDER_KEY + voucherId, "1"));
+            Assertions.assertTrue(awaitCondition(() -> stringRedisTemplate.opsForStream()
+                    .pending(RedisConstants.SECKILL_ORDER_STREAM_KEY, RedisConstants.SECKILL_ORDER_GROUP)
+                    .getTotalPendingMessages() == 0, 2000));
+        } finally {
+            stringRedisTemplate.delete("seckill:rollback:" + orderId);
+            removeTestSeckillVoucher(voucherId);
+        }
+    }
+
+    /**
+     * 秒杀券本地缓存在事务提交后清除，事务中被其它线程重新加载的旧数据在提交后被清掉；事务回滚后读到的仍是原数据
+     */
+    @Test
+    void testSeckillVoucherEvictAfterCommit() {
+        long voucherId = 980000004L;
+        saveTestSeckillVoucher(voucherId, 10);
+        try {
+            Assertions.assertEquals(10, seckillVoucherService.queryCachedById(voucherId).getStock());
+
+            // 1. 事务中更新，提交前其它线程读到并缓存了旧数据
+            transactionTemplate.executeWithoutResult(status -> {
+                SeckillVoucher update = new SeckillVoucher();
+                update.setVoucherId(voucherId);
+                update.setStock(5);
+                seckillVoucherService.updateById(update);
+                try {
+                    int stock = executorService.submit(() -> seckillVoucherService.queryCachedById(voucherId).getStock()).get();
+                    Assertions.assertEquals(10, stock);
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            // 2. 提交后清除，再次查询读到新数据
+            Assertions.assertEquals(5, seckillVoucherService.queryCachedById(voucherId).getStock());
+
+            // 3. 回滚的更新不会留在缓存中
+            transactionTemplate.executeWithoutResult(status -> {
+                SeckillVoucher update = new SeckillVoucher();
+                update.setVoucherId(voucherId);
+                update.setStock(1);
+                seckillVoucherService.updateById(update);
+                status.setRollbackOnly();
+            });
+            Assertions.assertEquals(5, seckillVoucherService.queryCachedById(voucherId).getStock());
+        } finally {
+            removeTestSeckillVoucher(voucherId);
+        }
+    }
+
+    /**
+     * 下单结果长轮询，排队中的请求挂起，订单写入后被发布订阅消息唤醒；同一用户的其它订单仍在排队，不会被误唤醒
+     */
+    @Test
+    void testSeckillResultLongPoll() {
+        long voucherId = 980000005L;
+        String resultKey = RedisConstants.SECKILL_RESULT_KEY + voucherId;
+        VoucherOrder order = new VoucherOrder();
+        order.setId(redisIdWorker.nextId("order"));
+        order.setUserId(1L);
+        order.setVoucherId(voucherId);
+        long otherOrderId = redisIdWorker.nextId("order");
+        stringRedisTemplate.opsForHash().put(resultKey, order.getId().toString(), "1:" + SeckillOrderResult.QUEUED);
+        stringRedisTemplate.opsForHash().put(resultKey, String.valueOf(otherOrderId), "1:" + SeckillOrderResult.QUEUED);
+        try {
+            // 1. 排队中，请求挂起
+            DeferredResult<Result> waiting = seckillResultRegistry.await(voucherId, 1L, order.getId(), 10000);
+            DeferredResult<Result> other = seckillResultRegistry.await(voucherId, 1L, otherOrderId, 10000);
+            Assertions.assertFalse(waiting.hasResult());
+
+            // 2. 订单写入后被唤醒，不需要等到超时
+            long begin = System.currentTimeMillis();
+            seckillResultRegistry.markPersisted(Collections.singletonList(order));
+            Assertions.assertTrue(awaitCondition(waiting::hasResult, 2000));
+            System.out.println("long poll woke up after " + (System.currentTimeMillis() - begin) + "ms");
+            SeckillOrderResult result = (SeckillOrderResult) ((Result) waiting.getResult()).getData();
+            Assertions.assertEquals(SeckillOrderResult.PERSISTED, result.getStatus());
+            Assertions.assertFalse(other.hasResult());
+
+            // 3. 已结束的结果立即返回，其它用户查不到该订单
+            DeferredResult<Result> finished = seckillResultRegistry.await(voucherId, 1L, order.getId(), 10000);
+            Assertions.assertTrue(finished.hasResult());
+            Assertions.assertNull(seckillResultRegistry.query(voucherId, 2L, order.getId()));
+        } finally {
+            stringRedisTemplate.delete(resultKey);
+        }
+    }
+
+    /**
+     * 秒杀排队测试，按速率放行，轮到的用户领取秒杀凭证，凭证只能使用一次，未轮到的用户继续等待
+     */
+    @Test
+    void testWaitingRoom() {
+        long voucherId = 980000006L;
+        Object releaseRate = ReflectionTestUtils.getField(seckillWaitingRoom, "releaseRate");
+        ReflectionTestUtils.setField(seckillWaitingRoom, "releaseRate", 10L);
+        try {
+            // 1. 依次排队，重复进入不改变排队号
+            for (long userId = 1; userId <= 5; userId++) {
+                Assertions.assertEquals(userId, seckillWaitingRoom.join(voucherId, userId).getAhead());
+            }
+            Assertions.assertEquals(1L, seckillWaitingRoom.join(voucherId, 1L).getAhead());
+            Assertions.assertNull(seckillWaitingRoom.query(voucherId, 1L).getPass());
+
+            // 2. 每秒放行10人，第一次只记录时间，120ms后放行1人，额度用完后立即再放行为0
+            Assertions.assertEquals(0, seckillWaitingRoom.release(voucherId));
+            ThreadUtil.sleep(120);
+            long released = seckillWaitingRoom.release(voucherId);
+            Assertions.assertTrue(released >= 1 && released < 5, "released = " + released);
+            Assertions.assertEquals(0, seckillWaitingRoom.release(voucherId));
+
+            // 3. 轮到的用户领取凭证，重复查询返回同一张凭证；未轮到的用户继续等待
+            SeckillQueueStatus status = seckillWaitingRoom.query(voucherId, 1L);
+            Assertions.assertEquals(0L, status.getAhead());
+            Assertions.assertNotNull(status.getPass());
+            Assertions.assertEquals(status.getPass(), seckillWaitingRoom.query(voucherId, 1L).getPass());
+            SeckillQueueStatus last = seckillWaitingRoom.query(voucherId, 5L);
+            Assertions.assertTrue(last.getAhead() > 0);
+            Assertions.assertNull(last.getPass());
+
+            // 4. 凭证只能使用一次，错误的凭证和其它用户都不能使用，用完后不在队列中
+            Assertions.assertFalse(seckillWaitingRoom.consumePass(voucherId, 1L, "invalid"));
+            Assertions.assertFalse(seckillWaitingRoom.consumePass(voucherId, 2L, status.getPass()));
+            Assertions.assertTrue(seckillWaitingRoom.consumePass(voucherId, 1L, status.getPass()));
+            Assertions.assertFalse(seckillWaitingRoom.consumePass(voucherId, 1L, status.getPass()));
+            Assertions.assertNull(seckillWaitingRoom.query(voucherId, 1L));
+        } finally {
+            ReflectionTestUtils.setField(seckillWaitingRoom, "releaseRate", releaseRate);
+            List<String> keys = new ArrayList<>(Arrays.asList(RedisConstants.SECKILL_QUEUE_KEY + voucherId,
+                    RedisConstants.SECKILL_QUEUE_SEQ_KEY + voucherId, RedisConstants.SECKILL_QUEUE_RELEASED_KEY + voucherId));
+            for (long userId = 1; userId <= 5; userId++) {
+                keys.add(RedisConstants.SECKILL_PASS_KEY + voucherId + ":" + userId);
+            }
+            stringRedisTemplate.delete(keys);
+            stringRedisTemplate.opsForSet().remove(RedisConstants.SECKILL_QUEUE_ACTIVE_KEY, String.valueOf(voucherId));
+        }
+    }
+
+    /**
+     * 超时未支付订单取消后归还数据库和Redis库存，同一订单再次取消或回滚时库存只归还一次
+     */
+    @Test
+    void testCancelTimeoutOrderOnce() {
+        long voucherId = 980000008L;
+        saveTestSeckillVoucher(voucherId, 2);
+        long orderId = redisIdWorker.nextId("order");
+        String member = orderId + ":" + voucherId + ":1";
+        try {
+            // 1. 下单并等待落库，订单进入超时队列
+            List<?> r = seckill(RedisConstants.SECKILL_ORDER_STREAM_KEY, "1", "0",
+                    String.valueOf(voucherId), String.valueOf(orderId), "1", "0", "1", "0");
+            Assertions.assertEquals(0L, r.get(0));
+            Assertions.assertTrue(awaitCondition(() -> stringRedisTemplate.opsForZSet()
+                    .score(RedisConstants.SECKILL_ORDER_TIMEOUT_KEY, member) != null, 10000));
+            Assertions.assertEquals(1, seckillVoucherService.getById(voucherId).getStock());
+            Assertions.assertEquals("1", stringRedisTemplate.opsForValue().get(RedisConstants.SECKILL_STOCK_KEY + voucherId));
+
+            // 2. 支付截止时间提前到已过期，取消订单，定时任务可能先一步取消
+            stringRedisTemplate.opsForZSet().add(RedisConstants.SECKILL_ORDER_TIMEOUT_KEY, member, 0);
+            voucherOrderService.cancelTimeoutOrders();
+            Assertions.assertTrue(awaitCondition(() -> stringRedisTemplate.opsForZSet()
+                    .score(RedisConstants.SECKILL_ORDER_TIMEOUT_KEY, member) == null, 5000));
+            assertCancelledOnce(voucherId, orderId);
+
+            // 3. 同一订单再次进入超时队列并取消，库存不会重复归还
+            stringRedisTemplate.opsForZSet().add(RedisConstants.SECKILL_ORDER_TIMEOUT_KEY, member, 0);
+            voucherOrderService.cancelTimeoutOrders();
+            Assertions.assertTrue(awaitCondition(() -> stringRedisTemplate.opsForZSet()
+                    .score(RedisConstants.SECKILL_ORDER_TIMEOUT_KEY, member) == null, 5000));
+            assertCancelledOnce(voucherId, orderId);
+
+            // 4. 直接重复回滚Redis中的秒杀资格，回滚标记保证只执行一次
+            List<VoucherOrder> cancelled = voucherOrderService.cancelUnpaidOrders(Collections.singletonList(orderId));
+            Assertions.assertEquals(1, cancelled.size());
+            ReflectionTestUtils.invokeMethod(AopTestUtils.getTargetObject(voucherOrderService), "rollbackSeckill", cancelled);
+            assertCancelledOnce(voucherId, orderId);
+        } finally {
+            removeTestSeckillVoucher(voucherId);
+        }
+    }
+
+    private void assertCancelledOnce(long voucherId, long orderId) {
+        Assertions.assertEquals(SystemConstants.ORDER_STATUS_CANCELLED, voucherOrderService.getById(orderId).getStatus());
+        Assertions.assertEquals(2, seckillVoucherService.getById(voucherId).getStock());
+        Assertions.assertEquals("2", stringRedisTemplate.opsForValue().get(RedisConstants.SECKILL_STOCK_KEY + voucherId));
+        Assertions.assertFalse(stringRedisTemplate.opsForSet().isMember(RedisConstants.SECKILL_ORDER_KEY + voucherId, "1"));
+        Assertions.assertEquals("1:" + SeckillOrderResult.CANCELLED, stringRedisTemplate.opsForHash()
+                .get(RedisConstants.SECKILL_RESULT_KEY + voucherId, String.valueOf(orderId)));
+    }
+
+    /**
+     * 新增测试用的秒杀券，同时加载Redis库存，一人一单，已开始且未结束
+     */
+    private void saveTestSeckillVoucher(long voucherId, int stock) {
+        SeckillVoucher voucher = new SeckillVoucher();
+        voucher.setVoucherId(voucherId);
+        voucher.setStock(stock);
+        voucher.setBeginTime(LocalDateTime.now().minusDays(1));
+        voucher.setEndTime(LocalDateTime.now().plusDays(1));
+        seckillVoucherService.save(voucher);
+        stringRedisTemplate.opsForValue().set(RedisConstants.SECKILL_STOCK_KEY + voucherId, String.valueOf(stock));
+    }
+
+    /**
+     * 删除测试秒杀券的订单、超时队列、回滚标记、数据库记录和Redis数据
+     */
+    private void removeTestSeckillVoucher(long voucherId) {
+        List<VoucherOrder> orders = voucherOrderService.query().eq("voucher_id", voucherId).list();
+        if (!orders.isEmpty()) {
+            stringRedisTemplate.opsForZSet().remove(RedisConstants.SECKILL_ORDER_TIMEOUT_KEY, orders.stream()
+                    .map(o -> o.getId() + ":" + o.getVoucherId() + ":" + o.getUserId()).toArray());
+            stringRedisTemplate.delete(orders.stream().map(o -> "seckill:rollback:" + o.getId()).collect(Collectors.toList()));
+        }
+        voucherOrderService.remove(new QueryWrapper<VoucherOrder>().eq("voucher_id", voucherId));
+        seckillVoucherService.removeById(voucherId);
+        stringRedisTemplate.delete(Arrays.asList(RedisConstants.SECKILL_STOCK_KEY + voucherId,
+                RedisConstants.SECKILL_ORDER_KEY + voucherId, RedisConstants.SECKILL_RESULT_KEY + voucherId));
+    }
+
+    /**
+     * 等待后台线程处理完成
+     * @return 超时前条件是否成立
+     */
+    private boolean awaitCondition(BooleanSupplier condition, long timeoutMs) {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() >= deadline) {
+                return false;
+            }
+            ThreadUtil.sleep(50);
+        }
+        return true;
+    }
+
+    /**
+     * 执行秒杀脚本
+     * @param batchMode 0：全部成功或全部失败；1：尽力而为
+     * @param voucherArgs 每6个一组：优惠券id，订单id，库存分片数，去重方式，每人限购数量，每人每天限购数量
+     * @return 每张优惠券的结果
+     */
+    private List<?> seckill(String streamKey, String userId, String batchMode, String... voucherArgs) {
+        List<String> args = new ArrayList<>();
+        args.add(userId);
+        args.add(SeckillDedupUtils.day(LocalDate.now()));
+        args.add(batchMode);
+        args.addAll(Arrays.asList(voucherArgs));
+        return stringRedisTemplate.execute(SECKILL_SCRIPT, Collections.singletonList(streamKey), args.toArray());
+    }
+
+    /**
+     * 一人一单去重方式内存对比，分别写入100万、1000万个连续的用户id，用 MEMORY USAGE 统计实际占用
+     * 基准测试，会向Redis写入上千万个成员，需要时手动运行，使用独立的优惠券id段 950000000
+     * 尚未在真实Redis上实测，目前没有Set与Bitmap的 MEMORY USAGE 数据，选择去重方式前需先运行本测试记录结果
+     * 运行方式：去掉 @Disabled，连接一个空闲的Redis实例，执行 mvn test -Dtest=HmDianPingApplicationTests#testDedupMemory
+     * 理论下限：Bitmap为 最大用户id / 8 字节（1000万用户约1.2MB），与用户数无关；Set为每个成员一个哈希表节点，随用户数线性增长
+     */
+    @Test
+    @Disabled("基准测试，手动运行")
+    void testDedupMemory() {
+        System.out.println("buyers, set(bytes), bitmap(bytes), chunkedBitmap(bytes), set(bytes/buyer)");
+        for (long buyers : new long[]{1_000_000L, 10_000_000L}) {
+            long voucherId = 950000000L + buyers / 1_000_000L;
+            String setKey = RedisConstants.SECKILL_ORDER_KEY + voucherId;
+            String bitmapKey = SeckillDedupUtils.bitmapKey(voucherId);
+            List<String> chunkKeys = new ArrayList<>();
+            for (long chunk = 0; chunk <= buyers / SeckillDedupUtils.CHUNK_BITS; chunk++) {
+                chunkKeys.add(SeckillDedupUtils.chunkKey(voucherId, chunk * SeckillDedupUtils.CHUNK_BITS));
+            }
+            List<String> keys = new ArrayList<>(chunkKeys);
+            keys.add(setKey);
+            keys.add(bitmapKey);
+            stringRedisTemplate.delete(keys);
+            try {
+                int batch = 10000;
+                for (long from = 1; from <= buyers; from += batch) {
+                    long begin = from;
+                    long end = Math.min(buyers, from + batch - 1);
+                    stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                        StringRedisConnection conn = (StringRedisConnection) connection;
+                        String[] userIds = new String[(int) (end - begin + 1)];
+                        for (long userId = begin; userId <= end; userId++) {
+                            userIds[(int) (userId - begin)] = String.valueOf(userId);
+                            conn.setBit(bitmapKey, userId, true);
+                            conn.setBit(SeckillDedupUtils.chunkKey(voucherId, userId), userId % SeckillDedupUtils.CHUNK_BITS, true);
+                        }
+                        conn.sAdd(setKey, userIds);
+                        return null;
+                    });
+                }
+                long setBytes = memoryUsage(setKey);
+                long bitmapBytes = memoryUsage(bitmapKey);
+                long chunkBytes = 0;
+                for (String chunkKey : chunkKeys) {
+                    chunkBytes += memoryUsage(chunkKey);
+                }
+                System.out.println(buyers + ", " + setBytes + ", " + bitmapBytes + ", " + chunkBytes
+                        + ", " + setBytes / buyers);
+                // 连续的用户id下Bitmap和分块Bitmap都应明显小于Set
+                Assertions.assertTrue(bitmapBytes < setBytes);
+                Assertions.assertTrue(chunkBytes < setBytes);
+            } finally {
+                stringRedisTemplate.delete(keys);
+            }
+        }
+    }
+
+    /**
+     * 售罄标记与回补交错，回补之后才到达的售罄标记在有效期后自动失效，不会永久拦截请求
+     */
+    @Test
+    void testSoldOutRestockRace() {
+        Long voucherId = 960000001L;
+        // 1.先售罄再回补，标记被清除
+        seckillSoldOutRegistry.markSoldOut(voucherId);
+        Assertions.assertTrue(seckillSoldOutRegistry.isSoldOut(voucherId));
+        seckillSoldOutRegistry.restock(voucherId);
+        ThreadUtil.sleep(200);
+        Assertions.assertFalse(seckillSoldOutRegistry.isSoldOut(voucherId));
+
+        // 2.回补之后才处理完的售罄请求再次打上标记
+        seckillSoldOutRegistry.markSoldOut(voucherId);
+        ThreadUtil.sleep(200);
+        Assertions.assertTrue(seckillSoldOutRegistry.isSoldOut(voucherId));
+
+        // 3.超过有效期后标记失效，请求重新交给Lua脚本判断库存
+        ThreadUtil.sleep(soldOutTtlMs);
+        Assertions.assertFalse(seckillSoldOutRegistry.isSoldOut(voucherId));
+    }
+
+    /**
+     * 限流器测试，周期内超出许可数的请求被拒绝，并返回需等待的时间，本地限流按key独立计数
+     */
+    @Test
+    void testRateLimiter() {
+        for (RateLimit.Algorithm algorithm : RateLimit.Algorithm.values()) {
+            String key = RedisConstants.RATE_LIMIT_KEY + "test:" + algorithm.name().toLowerCase();
+            stringRedisTemplate.delete(key);
+            for (int i = 0; i < 5; i++) {
+                Assertions.assertEquals(0, redisRateLimiter.tryAcquire(key, algorithm, 5, 1000));
+            }
+            long wait = redisRateLimiter.tryAcquire(key, algorithm, 5, 1000);
+            Assertions.assertTrue(wait > 0 && wait <= 1000, algorithm + " wait = " + wait);
+            stringRedisTemplate.delete(key);
+        }
+
+        // 本地限流，每秒5个即每200ms一个，不同优惠券互不影响，不访问Redis
+        String voucherKey = RedisConstants.RATE_LIMIT_KEY + "test:local:path_variable:";
+        Assertions.assertEquals(0, localRateLimiter.tryAcquire(voucherKey + 1, 5, 1000));
+        Assertions.assertEquals(200, localRateLimiter.tryAcquire(voucherKey + 1, 5, 1000));
+        Assertions.assertEquals(0, localRateLimiter.tryAcquire(voucherKey + 2, 5, 1000));
+        ThreadUtil.sleep(250);
+        Assertions.assertEquals(0, localRateLimiter.tryAcquire(voucherKey + 1, 5, 1000));
+        Assertions.assertFalse(stringRedisTemplate.hasKey(voucherKey + 1));
+    }
+
+    private long memoryUsage(String key) {
+        Object usage = stringRedisTemplate.execute((RedisCallback<Object>) connection -> connection.execute("MEMORY",
+                "USAGE".getBytes(StandardCharsets.UTF_8), key.getBytes(StandardCharsets.UTF_8),
+                "SAMPLES".getBytes(StandardCharsets.UTF_8), "0".getBytes(StandardCharsets.UTF_8)));
+        return usage == null ? 0 : ((Number) usage).longValue();
     }
 }